@@ -0,0 +1,55 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs each of the {@link Benchmark} cases for a field under JMH, on every size it covers.
+ * Pick cases and sizes with <code>-p name=solve -p size=1000x1000</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FieldBenchmark {
+	@Param({"generate", "reveal", "winloss", "chord", "count", "countScalar", "solve", "chunked", "paint", "paintOdds"})
+	public String name;
+
+	@Param({"9x9", "16x16", "30x16", "100x100", "500x500", "1000x1000", "2000x2000"})
+	public String size;
+
+	private Benchmark.Case benchmark;
+
+	@Setup
+	public void setup() throws IOException {
+		System.setProperty("java.awt.headless", "true");
+		int width = Integer.parseInt(size.substring(0, size.indexOf('x')));
+		int height = Integer.parseInt(size.substring(size.indexOf('x') + 1));
+		benchmark = Benchmark.find(Benchmark.cases(width, height), name);
+		benchmark.setup();
+	}
+
+	@org.openjdk.jmh.annotations.Benchmark
+	public void run() {
+		benchmark.run();
+	}
+
+	@TearDown
+	public void teardown() {
+		benchmark.teardown();
+	}
+}
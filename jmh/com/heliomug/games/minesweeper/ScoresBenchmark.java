@@ -0,0 +1,49 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs the {@link Benchmark} cases for the scores file under JMH: saving a game, and reading the history back.
+ * The file work runs on the benchmark thread, so <code>-prof gc</code> counts what it allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScoresBenchmark {
+	@Param({"scores", "scoresLoad"})
+	public String name;
+
+	private Benchmark.Case benchmark;
+
+	@Setup
+	public void setup() throws IOException {
+		benchmark = Benchmark.find(Benchmark.scoresCases(), name);
+		benchmark.setup();
+	}
+
+	@org.openjdk.jmh.annotations.Benchmark
+	public void run() {
+		benchmark.run();
+	}
+
+	@TearDown
+	public void teardown() {
+		benchmark.teardown();
+	}
+}
@@ -0,0 +1,469 @@
+package com.heliomug.games.minesweeper;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * These are the hot spots of the game, timed on fields from 9 X 9 up to 2000 X 2000, so changes can be
+ * checked against a baseline.  The cases are run under JMH by the benchmarks in the <code>jmh</code>
+ * source set: <code>mvn -Pjmh package</code>, then <code>java -jar target/benchmarks.jar</code>,
+ * with <code>-prof gc</code> for allocation.  That's the one to trust for comparing changes.
+ * <p>
+ * The main method here runs the same cases with nothing but the JDK, for a quick look:
+ * each one is warmed up, then run in batches until enough time has passed, and reported as
+ * time per operation and bytes allocated per operation by this thread.  The scores cases
+ * do their file work on this thread too, rather than on a background one, so it's counted here and under JMH.  It doesn't fork a JVM per case like JMH does.
+ * Arguments, all optional, are the part of a case name to match and the largest field side to run.
+ */
+public class Benchmark {
+	private static final int[][] SIZES = {{9, 9}, {16, 16}, {30, 16}, {100, 100}, {500, 500}, {1000, 1000}, {2000, 2000}};
+	// mines per cell for most cases, about what Hard is
+	private static final double DENSITY = 0.2;
+	// a sparse field, so one click opens most of it
+	private static final double SPARSE_DENSITY = 0.02;
+	private static final long WARMUP_NANOS = 300_000_000L;
+	private static final long MEASURE_NANOS = 1_000_000_000L;
+	// the image painted into is at most this big, like a screen
+	private static final int VIEW_WIDTH = 1920;
+	private static final int VIEW_HEIGHT = 1080;
+	private static final int CELL_SIZE = 20;
+	// games in the scores file that gets read back
+	private static final int SCORES_LOADED = 3000;
+
+	/**
+	 * One thing to time.  setup() is run once, and isn't timed.
+	 */
+	static abstract class Case {
+		final String name;
+		final int width;
+		final int height;
+
+		Case(String name, int width, int height) {
+			this.name = name;
+			this.width = width;
+			this.height = height;
+		}
+
+		void setup() throws IOException {
+		}
+
+		abstract void run();
+
+		void teardown() {
+		}
+	}
+
+	static List<Case> cases(final int width, final int height) {
+		List<Case> cases = new ArrayList<>();
+		final int mines = (int)(width * height * DENSITY);
+		final int sparseMines = (int)(width * height * SPARSE_DENSITY);
+
+		cases.add(new Case("generate", width, height) {
+			MineField field;
+			long seed;
+
+			@Override
+			void setup() {
+				field = new MineField(width, height, mines);
+				field.setSafeStart(MineField.SAFE_NONE);
+			}
+
+			@Override
+			void run() {
+				field.reset(seed++);
+			}
+		});
+
+		// the mines stay put, so this is just closing everything and flood filling it open again
+		cases.add(new Case("reveal", width, height) {
+			MineField field;
+
+			@Override
+			void setup() {
+				field = new MineField(width, height, sparseMines);
+				field.setSafeStart(MineField.SAFE_AREA);
+				field.reset(1);
+			}
+
+			@Override
+			void run() {
+				field.restart();
+				field.open(width / 2, height / 2);
+			}
+		});
+
+		cases.add(new Case("winloss", width, height) {
+			MineField field;
+			int found;
+
+			@Override
+			void setup() {
+				field = new MineField(width, height, mines);
+				field.reset(1);
+				field.open(width / 2, height / 2);
+			}
+
+			@Override
+			void run() {
+				if (field.isWinner() || field.isLoser()) {
+					found++;
+				}
+			}
+		});
+
+		// every mine is flagged, then every cell is chorded, which opens the whole field
+		cases.add(new Case("chord", width, height) {
+			MineField field;
+
+			@Override
+			void setup() {
+				field = new MineField(width, height, mines);
+				field.setSafeStart(MineField.SAFE_NONE);
+				field.reset(1);
+				// there's no chording until something's been opened
+				field.open(0, 0);
+			}
+
+			@Override
+			void run() {
+				field.restart();
+				for (int y = 0 ; y < height ; y++) {
+					for (int x = 0 ; x < width ; x++) {
+						if (field.isMine(x, y)) {
+							field.toggleFlag(x, y);
+						}
+					}
+				}
+				for (int y = 0 ; y < height ; y++) {
+					for (int x = 0 ; x < width ; x++) {
+						field.chord(x, y);
+					}
+				}
+			}
+		});
+
+		// every cell's mine count from scratch, a word of cells at a time
+		cases.add(new Case("count", width, height) {
+			long[] bits;
+			byte[] counts;
+
+			@Override
+			void setup() {
+				MineField field = new MineField(width, height, mines);
+				field.setSafeStart(MineField.SAFE_NONE);
+				field.reset(1);
+				counts = new byte[width * height];
+				for (int y = 0 ; y < height ; y++) {
+					for (int x = 0 ; x < width ; x++) {
+						counts[y * width + x] = (byte)(field.isMine(x, y) ? 1 : 0);
+					}
+				}
+				bits = BitBoard.pack(counts, (byte)1, width, height);
+			}
+
+			@Override
+			void run() {
+				BitBoard.count(bits, width, height, counts);
+			}
+		});
+
+		// the one-mine-at-a-time reference that BitBoardTest checks count against, to see what count saves
+		cases.add(new Case("countScalar", width, height) {
+			long[] bits;
+			byte[] counts;
+
+			@Override
+			void setup() {
+				MineField field = new MineField(width, height, mines);
+				field.setSafeStart(MineField.SAFE_NONE);
+				field.reset(1);
+				counts = new byte[width * height];
+				for (int y = 0 ; y < height ; y++) {
+					for (int x = 0 ; x < width ; x++) {
+						counts[y * width + x] = (byte)(field.isMine(x, y) ? 1 : 0);
+					}
+				}
+				bits = BitBoard.pack(counts, (byte)1, width, height);
+			}
+
+			@Override
+			void run() {
+				BitBoard.countScalar(bits, width, height, counts);
+			}
+		});
+
+		// the solver working through a game as far as it can without guessing, from the first click
+		cases.add(new Case("solve", width, height) {
+			MineField field;
+			Solver solver;
+
+			@Override
+			void setup() {
+				field = new MineField(width, height, mines);
+				field.setSafeStart(MineField.SAFE_AREA);
+				field.reset(1);
+				solver = new Solver(field);
+			}
+
+			@Override
+			void run() {
+				field.restart();
+				field.open(width / 2, height / 2);
+				solver.solve();
+				int cell;
+				while ((cell = solver.nextSafeCell()) >= 0) {
+					field.open(cell % width, cell / width);
+					solver.solve();
+				}
+			}
+		});
+
+		// every cell of a patch of the endless field flagged or unflagged, row by row, with room for only
+		// a row of chunks, so each one gets written out and read back in once a run
+		cases.add(new Case("chunked", width, height) {
+			File swapDir;
+			ChunkedField field;
+
+			@Override
+			void setup() throws IOException {
+				swapDir = Files.createTempDirectory("minechunks").toFile();
+				field = new ChunkedField(1, DENSITY, swapDir, (width >> 6) + 2);
+			}
+
+			@Override
+			void run() {
+				for (int y = 0 ; y < height ; y++) {
+					for (int x = 0 ; x < width ; x++) {
+						field.toggleFlag(x, y);
+					}
+				}
+			}
+
+			@Override
+			void teardown() {
+				for (File file : swapDir.listFiles()) {
+					file.delete();
+				}
+				swapDir.delete();
+			}
+		});
+
+		// what the board panel paints for a screenful, through the same code, without and with the odds
+		cases.add(new PaintCase("paint", width, height, sparseMines, false));
+		cases.add(new PaintCase("paintOdds", width, height, mines, true));
+
+		return cases;
+	}
+
+	/**
+	 * Paints one screenful of a field with one click made, into an image clipped like the viewport.
+	 */
+	private static class PaintCase extends Case {
+		final int mines;
+		final boolean isOddsOn;
+		MineField field;
+		Probabilities odds;
+		TileSet tiles;
+		BufferedImage image;
+		Graphics2D g;
+
+		PaintCase(String name, int width, int height, int mines, boolean isOddsOn) {
+			super(name, width, height);
+			this.mines = mines;
+			this.isOddsOn = isOddsOn;
+		}
+
+		@Override
+		void setup() {
+			field = new MineField(width, height, mines);
+			field.reset(1);
+			field.open(width / 2, height / 2);
+			if (isOddsOn) {
+				odds = new Probabilities(field, new Solver(field));
+				odds.compute();
+			}
+			tiles = new TileSet(CELL_SIZE, true);
+			image = new BufferedImage(Math.min(width * CELL_SIZE, VIEW_WIDTH) + 1,
+					Math.min(height * CELL_SIZE, VIEW_HEIGHT) + 1, BufferedImage.TYPE_INT_RGB);
+			g = image.createGraphics();
+			g.setClip(0, 0, image.getWidth(), image.getHeight());
+		}
+
+		@Override
+		void run() {
+			Minesweeper.paintCells(g, field, tiles, odds, false, CELL_SIZE);
+		}
+
+		@Override
+		void teardown() {
+			g.dispose();
+		}
+	}
+
+	// the scores file doesn't depend on the field size, so these only get timed once
+	static List<Case> scoresCases() {
+		List<Case> cases = new ArrayList<>();
+
+		cases.add(new Case("scores", 0, 0) {
+			File file;
+			Persistence io;
+			Scores scores;
+			int n;
+
+			@Override
+			void setup() throws IOException {
+				file = File.createTempFile("minescores", null);
+				file.deleteOnExit();
+				io = new Persistence(true);
+				scores = new Scores(file, io);
+			}
+
+			// one game written all the way to the disk
+			@Override
+			void run() {
+				scores.addGame(9, 9, 10, ++n, n % 2 == 0, null);
+				try {
+					io.flush();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			void teardown() {
+				io.close();
+				file.delete();
+			}
+		});
+
+		cases.add(new Case("scoresLoad", 0, 0) {
+			File file;
+			Persistence io;
+			Scores scores;
+
+			// a history of a few thousand games over the built-in sizes
+			@Override
+			void setup() throws IOException {
+				file = File.createTempFile("minescores", null);
+				file.deleteOnExit();
+				io = new Persistence(true);
+				Scores history = new Scores(file, io);
+				for (int n = 0 ; n < SCORES_LOADED ; n++) {
+					Object[] config = MineField.CONFIGS[n % MineField.CONFIGS.length];
+					history.addGame((int)config[1], (int)config[2], (int)config[3], n, n % 2 == 0, null);
+				}
+				flush();
+			}
+
+			// the whole file read back in, like at startup
+			@Override
+			void run() {
+				scores = new Scores(file, io);
+				flush();
+			}
+
+			private void flush() {
+				try {
+					io.flush();
+				} catch (InterruptedException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+
+			@Override
+			void teardown() {
+				io.close();
+				file.delete();
+			}
+		});
+
+		return cases;
+	}
+
+	/**
+	 * @return the case with the given name, for the JMH benchmarks to pick one out
+	 */
+	static Case find(List<Case> cases, String name) {
+		for (Case c : cases) {
+			if (c.name.equals(name)) {
+				return c;
+			}
+		}
+		throw new IllegalArgumentException("No case named " + name);
+	}
+
+	/**
+	 * @return the bytes allocated so far by this thread, or -1 if the JVM can't tell
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	 * Runs the case in batches, doubling the batch until it takes long enough to time.
+	 *
+	 * @return the number of operations run and the nanoseconds they took
+	 */
+	private static long[] loop(Case c, long minNanos) {
+		long ops = 0;
+		long batch = 1;
+		long start = System.nanoTime();
+		long elapsed = 0;
+		while (elapsed < minNanos) {
+			for (long i = 0 ; i < batch ; i++) {
+				c.run();
+			}
+			ops += batch;
+			elapsed = System.nanoTime() - start;
+			if (elapsed < minNanos / 10) {
+				batch *= 2;
+			}
+		}
+		return new long[] {ops, elapsed};
+	}
+
+	private static void measure(Case c) throws IOException {
+		c.setup();
+		loop(c, WARMUP_NANOS);
+		long before = allocatedBytes();
+		long[] result = loop(c, MEASURE_NANOS);
+		long after = allocatedBytes();
+		c.teardown();
+		double nanosPerOp = (double)result[1] / result[0];
+		String size = c.width > 0 ? String.format("%d X %d", c.width, c.height) : "-";
+		String alloc = before >= 0 ? String.format("%.1f", (double)(after - before) / result[0]) : "?";
+		System.out.println(String.format("%-12s %-12s %14.1f %14.1f %14s",
+				c.name, size, nanosPerOp / 1000, 1e9 / nanosPerOp, alloc));
+	}
+
+	public static void main(String[] args) throws IOException {
+		String filter = args.length > 0 ? args[0] : "";
+		int maxSide = args.length > 1 ? Integer.parseInt(args[1]) : Integer.MAX_VALUE;
+		System.setProperty("java.awt.headless", "true");
+		System.out.println(String.format("%-12s %-12s %14s %14s %14s", "case", "size", "us/op", "ops/s", "bytes/op"));
+		for (int[] size : SIZES) {
+			if (size[0] <= maxSide && size[1] <= maxSide) {
+				for (Case c : cases(size[0], size[1])) {
+					if (c.name.contains(filter)) {
+						measure(c);
+					}
+				}
+			}
+		}
+		for (Case c : scoresCases()) {
+			if (c.name.contains(filter)) {
+				measure(c);
+			}
+		}
+	}
+}
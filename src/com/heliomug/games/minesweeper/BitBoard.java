@@ -0,0 +1,155 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.Arrays;
+
+/**
+ * This works out every cell's count of mines in its 3x3 block at once, from the mines packed
+ * one bit per cell.  Each row is packed into its own longs, lowest cell in the lowest bit,
+ * and the counts for 64 cells are added up together as four bit planes using shifts and
+ * logic operations, so the only work done cell by cell is unpacking the answer.
+ * {@link #countScalar} does the same thing one mine at a time.  The game never uses it;
+ * it's the reference that BitBoardTest checks {@link #count} against.
+ */
+class BitBoard {
+	private BitBoard() {
+	}
+
+	static int wordsPerRow(int width) {
+		return (width + 63) >>> 6;
+	}
+
+	/**
+	 * Packs the cells with the given bit set into row-aligned words.
+	 */
+	static long[] pack(byte[] cells, byte bit, int width, int height) {
+		int words = wordsPerRow(width);
+		long[] rows = new long[words * height];
+		for (int y = 0 ; y < height ; y++) {
+			int base = y * width;
+			for (int x = 0 ; x < width ; x++) {
+				if ((cells[base + x] & bit) != 0) {
+					rows[y * words + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Repacks a bitmap of the whole field, numbered y * width + x, into row-aligned words.
+	 */
+	static long[] fromFlat(long[] flat, int width, int height) {
+		int words = wordsPerRow(width);
+		long[] rows = new long[words * height];
+		for (int y = 0 ; y < height ; y++) {
+			for (int w = 0 ; w < words ; w++) {
+				long start = (long)y * width + ((long)w << 6);
+				int i = (int)(start >>> 6);
+				int shift = (int)(start & 63);
+				long word = flat[i] >>> shift;
+				if (shift != 0 && i + 1 < flat.length) {
+					word |= flat[i + 1] << (64 - shift);
+				}
+				int bits = Math.min(64, width - (w << 6));
+				if (bits < 64) {
+					word &= (1L << bits) - 1;
+				}
+				rows[y * words + w] = word;
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Fills in counts[y * width + x] with the number of mines in the 3x3 block around (x, y).
+	 */
+	static void count(long[] mines, int width, int height, byte[] counts) {
+		int words = wordsPerRow(width);
+		// sums across each row as two bit planes, for the row above, this one and the one below
+		long[] above0 = new long[words];
+		long[] above1 = new long[words];
+		long[] here0 = new long[words];
+		long[] here1 = new long[words];
+		long[] below0 = new long[words];
+		long[] below1 = new long[words];
+		if (height > 0) {
+			rowSums(mines, 0, words, width, here0, here1);
+		}
+		for (int y = 0 ; y < height ; y++) {
+			if (y + 1 < height) {
+				rowSums(mines, (y + 1) * words, words, width, below0, below1);
+			} else {
+				Arrays.fill(below0, 0);
+				Arrays.fill(below1, 0);
+			}
+			int base = y * width;
+			for (int w = 0 ; w < words ; w++) {
+				// add three two-bit numbers into four bits
+				long a0 = above0[w], a1 = above1[w];
+				long b0 = here0[w], b1 = here1[w];
+				long c0 = below0[w], c1 = below1[w];
+				long bit0 = a0 ^ b0 ^ c0;
+				long carry = (a0 & b0) | (a0 & c0) | (b0 & c0);
+				long odd = a1 ^ b1 ^ c1;
+				long most = (a1 & b1) | (a1 & c1) | (b1 & c1);
+				long bit1 = odd ^ carry;
+				long more = odd & carry;
+				long bit2 = most ^ more;
+				long bit3 = most & more;
+				int end = Math.min(64, width - (w << 6));
+				int cell = base + (w << 6);
+				for (int i = 0 ; i < end ; i++) {
+					counts[cell + i] = (byte)(((bit0 >>> i) & 1) | (((bit1 >>> i) & 1) << 1)
+							| (((bit2 >>> i) & 1) << 2) | (((bit3 >>> i) & 1) << 3));
+				}
+			}
+			// slide the window down a row, reusing the arrays
+			long[] t0 = above0, t1 = above1;
+			above0 = here0;
+			above1 = here1;
+			here0 = below0;
+			here1 = below1;
+			below0 = t0;
+			below1 = t1;
+		}
+	}
+
+	// sum of each cell and its left and right neighbours in one row, as two bit planes
+	private static void rowSums(long[] mines, int start, int words, int width, long[] sum0, long[] sum1) {
+		for (int w = 0 ; w < words ; w++) {
+			long m = mines[start + w];
+			long prev = w > 0 ? mines[start + w - 1] : 0;
+			long next = w + 1 < words ? mines[start + w + 1] : 0;
+			long left = (m << 1) | (prev >>> 63);
+			long right = (m >>> 1) | (next << 63);
+			sum0[w] = m ^ left ^ right;
+			sum1[w] = (m & left) | (m & right) | (left & right);
+		}
+		// nothing past the right edge
+		int bits = width - ((words - 1) << 6);
+		if (bits < 64) {
+			long mask = (1L << bits) - 1;
+			sum0[words - 1] &= mask;
+			sum1[words - 1] &= mask;
+		}
+	}
+
+	/**
+	 * Does what count() does, but by adding one to the 3x3 block around each mine in turn.
+	 */
+	static void countScalar(long[] mines, int width, int height, byte[] counts) {
+		Arrays.fill(counts, (byte)0);
+		int words = wordsPerRow(width);
+		for (int y = 0 ; y < height ; y++) {
+			for (int x = 0 ; x < width ; x++) {
+				if ((mines[y * words + (x >>> 6)] & (1L << x)) != 0) {
+					for (int j = Math.max(y - 1, 0) ; j <= Math.min(y + 1, height - 1) ; j++) {
+						for (int i = Math.max(x - 1, 0) ; i <= Math.min(x + 1, width - 1) ; i++) {
+							counts[j * width + i]++;
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This keeps a few fresh fields ready for each size that's been played lately,
+ * so starting a new game is swapping one in instead of allocating a board and laying out
+ * its mines on the event dispatch thread.  Fields lay out their mines on reset,
+ * whatever the safe start, so all the first click has to do is move the few in its way.
+ * One background thread keeps the pools topped up, most recently used size first,
+ * laying out the last field swapped out again if it's the right size rather than allocating one.
+ * Only the last few sizes are kept, and the whole pool stays under a memory budget,
+ * taking boards away from the sizes used longest ago to make room.
+ */
+public class BoardPool {
+	// how many sizes to keep boards ready for
+	private static final int MAX_CONFIGS = 4;
+
+	private final long budget;
+	private final int perConfig;
+	// most recently used last
+	private final LinkedHashMap<Config, ArrayDeque<MineField>> pools;
+	private final Thread producer;
+	// the last field handed back to be laid out again, and its size
+	private MineField returned;
+	private Config returnedConfig;
+	private long bytes;
+	private boolean isClosed;
+
+	/**
+	 * @param budget most bytes of boards to keep ready, all sizes together
+	 * @param perConfig most boards to keep ready of any one size
+	 */
+	public BoardPool(long budget, int perConfig) {
+		this.budget = budget;
+		this.perConfig = perConfig;
+		this.pools = new LinkedHashMap<Config, ArrayDeque<MineField>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Config, ArrayDeque<MineField>> eldest) {
+				if (size() > MAX_CONFIGS) {
+					bytes -= eldest.getValue().size() * eldest.getKey().bytes;
+					return true;
+				}
+				return false;
+			}
+		};
+		producer = new Thread("Board producer") {
+			@Override
+			public void run() {
+				produce();
+			}
+		};
+		producer.setDaemon(true);
+		producer.start();
+	}
+
+	/**
+	 * Hands over a fresh field of this size, with a random seed, if one's ready.
+	 * Either way, this size becomes the first one to be topped up.
+	 * This is the only place that looks sizes up with get(), since that's what counts as using one.
+	 *
+	 * @return the field, or null if there wasn't one ready
+	 */
+	public synchronized MineField take(int width, int height, int mines, int safeStart) {
+		Config config = new Config(width, height, mines, safeStart);
+		ArrayDeque<MineField> pool = pools.get(config);
+		if (pool == null) {
+			pool = new ArrayDeque<>();
+			pools.put(config, pool);
+		}
+		MineField field = pool.poll();
+		if (field != null) {
+			bytes -= config.bytes;
+		}
+		notifyAll();
+		return field;
+	}
+
+	/**
+	 * Hands back a field that's done with, to be laid out again for the next game of its size
+	 * instead of allocating a new one.  Nothing else can be using it or following it.
+	 */
+	public synchronized void recycle(MineField field) {
+		returned = field;
+		returnedConfig = new Config(field.getWidth(), field.getHeight(), field.getMines(), field.getSafeStart());
+		notifyAll();
+	}
+
+	/**
+	 * @return how many bytes of boards are ready now, for the tests to check the budget
+	 */
+	synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return how many boards of this size are ready now, for the tests to check the pools
+	 */
+	synchronized int getReady(int width, int height, int mines, int safeStart) {
+		ArrayDeque<MineField> pool = find(new Config(width, height, mines, safeStart));
+		return pool == null ? 0 : pool.size();
+	}
+
+	/**
+	 * Stops making boards and lets go of the ones that are ready.
+	 */
+	public synchronized void close() {
+		isClosed = true;
+		pools.clear();
+		returned = null;
+		returnedConfig = null;
+		bytes = 0;
+		notifyAll();
+	}
+
+	private void produce() {
+		try {
+			while (true) {
+				Config config = nextToMake();
+				if (config == null) {
+					return;
+				}
+				MineField field = reclaim(config);
+				if (field != null) {
+					field.reset();
+				} else {
+					// the safe start only matters on the first click, so this doesn't need another reset
+					field = new MineField(config.width, config.height, config.mines);
+					field.setSafeStart(config.safeStart);
+				}
+				give(config, field);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// waits until some size needs a board that fits in the budget, and makes room for it
+	private synchronized Config nextToMake() throws InterruptedException {
+		while (!isClosed) {
+			List<Map.Entry<Config, ArrayDeque<MineField>>> entries = new ArrayList<>(pools.entrySet());
+			for (int i = entries.size() - 1 ; i >= 0 ; i--) {
+				Config config = entries.get(i).getKey();
+				if (entries.get(i).getValue().size() < perConfig && makeRoom(config, entries)) {
+					return config;
+				}
+			}
+			wait();
+		}
+		return null;
+	}
+
+	// takes boards away from sizes used longer ago than this one until another of it fits
+	private boolean makeRoom(Config config, List<Map.Entry<Config, ArrayDeque<MineField>>> entries) {
+		long older = 0;
+		for (Map.Entry<Config, ArrayDeque<MineField>> entry : entries) {
+			if (entry.getKey().equals(config)) {
+				break;
+			}
+			older += entry.getValue().size() * entry.getKey().bytes;
+		}
+		if (bytes - older + config.bytes > budget) {
+			return false;
+		}
+		Iterator<Map.Entry<Config, ArrayDeque<MineField>>> oldest = entries.iterator();
+		while (bytes + config.bytes > budget) {
+			Map.Entry<Config, ArrayDeque<MineField>> entry = oldest.next();
+			while (bytes + config.bytes > budget && entry.getValue().poll() != null) {
+				bytes -= entry.getKey().bytes;
+			}
+		}
+		return true;
+	}
+
+	// the field handed back, if it's this size
+	private synchronized MineField reclaim(Config config) {
+		if (returned == null || !returnedConfig.equals(config)) {
+			return null;
+		}
+		MineField field = returned;
+		returned = null;
+		returnedConfig = null;
+		return field;
+	}
+
+	private synchronized void give(Config config, MineField field) {
+		ArrayDeque<MineField> pool = find(config);
+		if (pool != null && pool.size() < perConfig && bytes + config.bytes <= budget) {
+			pool.add(field);
+			bytes += config.bytes;
+		}
+	}
+
+	/**
+	 * Looks up a size without get(), since get() moves it to the end of the access order,
+	 * and only taking a board should count as using a size.
+	 */
+	private ArrayDeque<MineField> find(Config config) {
+		for (Map.Entry<Config, ArrayDeque<MineField>> entry : pools.entrySet()) {
+			if (entry.getKey().equals(config)) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static class Config {
+		private final int width;
+		private final int height;
+		private final int mines;
+		private final int safeStart;
+		private final long bytes;
+
+		private Config(int width, int height, int mines, int safeStart) {
+			this.width = width;
+			this.height = height;
+			this.mines = mines;
+			this.safeStart = safeStart;
+			// a byte each of state and counts, two ints of scratch, and a bit of mine
+			long cells = (long)width * height;
+			this.bytes = cells * 10 + BitBoard.wordsPerRow(width) * 8L * height;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Config)) {
+				return false;
+			}
+			Config config = (Config)other;
+			return width == config.width && height == config.height && mines == config.mines
+					&& safeStart == config.safeStart;
+		}
+
+		@Override
+		public int hashCode() {
+			return ((width * 31 + height) * 31 + mines) * 31 + safeStart;
+		}
+	}
+}
@@ -0,0 +1,392 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * This is a minefield with no edges, for boards too big to keep in memory all at once.
+ * It's split into square chunks that are laid out the first time they're looked at,
+ * from the seed and the chunk's position, so the same seed always gives the same field.
+ * Only the most recently used chunks are kept in memory.  When one gets pushed out,
+ * it's written to a file in the swap directory if anything in it has been opened or flagged
+ * since it was last read or written, and otherwise just dropped, since either the file has it already
+ * or it can be laid out again.
+ * The 3x3 block around (0, 0) never has mines, so that's where to start.
+ * Sparse enough fields have empty regions with no end, so a click only opens so many cells;
+ * the rest of the reveal waits for {@link #resume()}.
+ */
+public class ChunkedField {
+	// chunks are CHUNK_SIZE cells on a side
+	private static final int CHUNK_SHIFT = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// bits of the per-cell state byte, like MineField
+	private static final byte MINE = 1;
+	private static final byte OPEN = 2;
+	private static final byte FLAG = 4;
+
+	// most cells one click opens before the reveal stops to let the caller back in
+	static final int MAX_REVEAL = 1 << 20;
+
+	private final long seed;
+	private final double density;
+	private final File swapDir;
+	private final int maxChunks;
+
+	// chunks in memory
+	private final Map<Long, Chunk> chunks;
+	// the last chunk looked at, since most lookups land in the same one
+	private Chunk lastChunk;
+	// counts every lookup, to stamp chunks with when they were last used
+	private long lookups;
+
+	// work queue for flood fill, cells packed like chunk keys; grows as needed
+	private long[] queue;
+	// what's left of the reveal in progress is queue[head] up to queue[tail]
+	private int head;
+	private int tail;
+
+	private long openSafe;
+	private long openMines;
+	private long flags;
+
+	/**
+	 * @param density the chance above 0 and below 1 that any cell is a mine
+	 * @param swapDir where to write chunks that get pushed out of memory
+	 * @param maxChunks the most chunks to keep in memory at once
+	 */
+	public ChunkedField(long seed, double density, File swapDir, int maxChunks) {
+		if (density <= 0 || density >= 1) {
+			throw new IllegalArgumentException(String.format("Mine density %f isn't between 0 and 1", density));
+		}
+		this.seed = seed;
+		this.density = density;
+		this.swapDir = swapDir;
+		this.maxChunks = Math.max(maxChunks, 1);
+		this.chunks = new HashMap<>();
+		this.queue = new long[CHUNK_SIZE * CHUNK_SIZE];
+	}
+
+	/**
+	 * One square of the field.  Cells are indexed y * CHUNK_SIZE + x within the chunk.
+	 */
+	private static class Chunk {
+		final int chunkX;
+		final int chunkY;
+		final byte[] cells;
+		// changed since it was last read or written, so it has to be written out to keep it
+		boolean isDirty;
+		// when it was last looked at, counted in lookups
+		long lastUsed;
+
+		Chunk(int chunkX, int chunkY, byte[] cells) {
+			this.chunkX = chunkX;
+			this.chunkY = chunkY;
+			this.cells = cells;
+		}
+	}
+
+	private static long key(int x, int y) {
+		return ((long)x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private static int keyX(long key) {
+		return (int)(key >> 32);
+	}
+
+	private static int keyY(long key) {
+		return (int)key;
+	}
+
+	private Chunk chunk(int x, int y) {
+		int chunkX = x >> CHUNK_SHIFT;
+		int chunkY = y >> CHUNK_SHIFT;
+		// the stamp is kept up even on the quick way, so the chunk in use is never the one pushed out
+		if (lastChunk != null && lastChunk.chunkX == chunkX && lastChunk.chunkY == chunkY) {
+			lastChunk.lastUsed = ++lookups;
+			return lastChunk;
+		}
+		Long key = key(chunkX, chunkY);
+		Chunk chunk = chunks.get(key);
+		if (chunk == null) {
+			if (chunks.size() >= maxChunks) {
+				evictOldest();
+			}
+			chunk = load(chunkX, chunkY);
+			chunks.put(key, chunk);
+		}
+		chunk.lastUsed = ++lookups;
+		lastChunk = chunk;
+		return chunk;
+	}
+
+	// pushes out the chunk that's gone longest without being looked at
+	private void evictOldest() {
+		Chunk oldest = null;
+		for (Chunk chunk : chunks.values()) {
+			if (oldest == null || chunk.lastUsed < oldest.lastUsed) {
+				oldest = chunk;
+			}
+		}
+		evict(oldest);
+		chunks.remove(key(oldest.chunkX, oldest.chunkY));
+	}
+
+	private static int index(int x, int y) {
+		return (y & CHUNK_MASK) * CHUNK_SIZE + (x & CHUNK_MASK);
+	}
+
+	private byte state(int x, int y) {
+		return chunk(x, y).cells[index(x, y)];
+	}
+
+	private File swapFile(int chunkX, int chunkY) {
+		return new File(swapDir, String.format("%016x_%d_%d.chunk", seed, chunkX, chunkY));
+	}
+
+	private Chunk load(int chunkX, int chunkY) {
+		File file = swapFile(chunkX, chunkY);
+		if (file.exists()) {
+			try {
+				return new Chunk(chunkX, chunkY, Files.readAllBytes(file.toPath()));
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't read " + file, e);
+			}
+		}
+		return generate(chunkX, chunkY);
+	}
+
+	private void evict(Chunk chunk) {
+		if (chunk == lastChunk) {
+			lastChunk = null;
+		}
+		if (chunk.isDirty) {
+			File file = swapFile(chunk.chunkX, chunk.chunkY);
+			try {
+				Files.write(file.toPath(), chunk.cells);
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't write " + file, e);
+			}
+			chunk.isDirty = false;
+		}
+	}
+
+	/**
+	 * Lays out a chunk from the seed and its position alone, so it comes out the same every time.
+	 */
+	private Chunk generate(int chunkX, int chunkY) {
+		SplittableRandom random = new SplittableRandom(seed ^ (key(chunkX, chunkY) * 0x9E3779B97F4A7C15L));
+		byte[] cells = new byte[CHUNK_SIZE * CHUNK_SIZE];
+		int left = chunkX << CHUNK_SHIFT;
+		int top = chunkY << CHUNK_SHIFT;
+		for (int i = 0 ; i < cells.length ; i++) {
+			int x = left + (i & CHUNK_MASK);
+			int y = top + (i >> CHUNK_SHIFT);
+			if (random.nextDouble() < density && (Math.abs(x) > 1 || Math.abs(y) > 1)) {
+				cells[i] = MINE;
+			}
+		}
+		return new Chunk(chunkX, chunkY, cells);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public double getDensity() {
+		return density;
+	}
+
+	/**
+	 * @return how many chunks are in memory right now
+	 */
+	public int getChunkCount() {
+		return chunks.size();
+	}
+
+	public boolean isMine(int x, int y) {
+		return (state(x, y) & MINE) != 0;
+	}
+
+	public boolean isOpen(int x, int y) {
+		return (state(x, y) & OPEN) != 0;
+	}
+
+	public boolean isFlag(int x, int y) {
+		return (state(x, y) & FLAG) != 0;
+	}
+
+	/**
+	 * This counts the cell itself too, like {@link MineField#minesAround(int, int)}.
+	 */
+	public int minesAround(int x, int y) {
+		int count = 0;
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				if ((state(i, j) & MINE) != 0) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public int flagsAround(int x, int y) {
+		int count = 0;
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				if ((state(i, j) & (OPEN | FLAG)) == FLAG) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public long getOpenCount() {
+		return openSafe;
+	}
+
+	public long getFlagCount() {
+		return flags;
+	}
+
+	public boolean isLoser() {
+		return openMines > 0;
+	}
+
+	/**
+	 * Opens the cell at (x, y), and everything around it if it has no mines nearby,
+	 * up to {@link #MAX_REVEAL} cells.
+	 *
+	 * @return whether the reveal is done; if not, {@link #resume()} carries on with it
+	 */
+	public boolean open(int x, int y) {
+		start(x, y);
+		return reveal();
+	}
+
+	/**
+	 * Opens up to {@link #MAX_REVEAL} more cells of a reveal that stopped short.
+	 *
+	 * @return whether the reveal is done now
+	 */
+	public boolean resume() {
+		return reveal();
+	}
+
+	/**
+	 * @return whether a reveal stopped short and there's more to open
+	 */
+	public boolean isRevealing() {
+		return head < tail;
+	}
+
+	// opens the cell and lines it up to open around, without opening anything else yet
+	private void start(int x, int y) {
+		if ((state(x, y) & (OPEN | FLAG)) != 0) {
+			return;
+		}
+		markOpen(x, y);
+		if (minesAround(x, y) == 0) {
+			enqueue(key(x, y));
+		}
+	}
+
+	private void enqueue(long cell) {
+		if (tail == queue.length) {
+			// slide what's left to the front before growing
+			System.arraycopy(queue, head, queue, 0, tail - head);
+			tail -= head;
+			head = 0;
+			if (tail == queue.length) {
+				queue = Arrays.copyOf(queue, queue.length * 2);
+			}
+		}
+		queue[tail++] = cell;
+	}
+
+	private boolean reveal() {
+		long stop = openSafe + MAX_REVEAL;
+		while (head < tail && openSafe < stop) {
+			long cell = queue[head++];
+			int cx = keyX(cell);
+			int cy = keyY(cell);
+			for (int i = cx - 1 ; i <= cx + 1 ; i++) {
+				for (int j = cy - 1 ; j <= cy + 1 ; j++) {
+					if ((state(i, j) & (OPEN | FLAG)) == 0) {
+						markOpen(i, j);
+						if (minesAround(i, j) == 0) {
+							enqueue(key(i, j));
+						}
+					}
+				}
+			}
+		}
+		if (head == tail) {
+			head = 0;
+			tail = 0;
+			return true;
+		}
+		return false;
+	}
+
+	private void markOpen(int x, int y) {
+		Chunk chunk = chunk(x, y);
+		int i = index(x, y);
+		chunk.cells[i] |= OPEN;
+		chunk.isDirty = true;
+		if ((chunk.cells[i] & MINE) != 0) {
+			openMines++;
+		} else {
+			openSafe++;
+		}
+	}
+
+	public void toggleFlag(int x, int y) {
+		Chunk chunk = chunk(x, y);
+		int i = index(x, y);
+		chunk.cells[i] ^= FLAG;
+		chunk.isDirty = true;
+		if ((chunk.cells[i] & OPEN) == 0) {
+			flags += (chunk.cells[i] & FLAG) != 0 ? 1 : -1;
+		}
+	}
+
+	/**
+	 * Opens everything around (x, y) if the number of flags around it
+	 * matches the number of mines around it.
+	 * Like {@link #open(int, int)}, it only opens so many cells, and {@link #resume()} carries on.
+	 *
+	 * @return whether anything was opened
+	 */
+	public boolean chord(int x, int y) {
+		if (flagsAround(x, y) != minesAround(x, y)) {
+			return false;
+		}
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				start(i, j);
+			}
+		}
+		reveal();
+		return true;
+	}
+
+	/**
+	 * Writes every chunk in memory that's changed since it was last read or written out to the swap directory.
+	 * A new field with the same seed and swap directory picks up where this one left off,
+	 * though its counts of open cells and flags start from zero, and a reveal that stopped short isn't kept.
+	 */
+	public void flush() {
+		for (Chunk chunk : chunks.values()) {
+			evict(chunk);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package com.heliomug.games.minesweeper;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
+import javax.swing.JLabel;
+import javax.swing.SwingConstants;
+import javax.swing.Timer;
+
+/**
+ * This is the game clock.  It owns the one timer that ticks while a game is going,
+ * and only this label gets repainted when it ticks.
+ */
+class ClockLabel extends JLabel {
+	private static final long serialVersionUID = 4383620046210874291L;
+
+	private static final int TICK_MILLIS = 1000;
+
+	private final Timer timer;
+
+	private long startNanos;
+	private double finishSeconds;
+	private boolean isRunning;
+
+	public ClockLabel() {
+		super("", SwingConstants.CENTER);
+		timer = new Timer(TICK_MILLIS, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				updateText();
+			}
+		});
+		reset();
+	}
+
+	public void start() {
+		start(0.0);
+	}
+
+	/**
+	 * Starts the clock as if it had already been running for the given number of seconds.
+	 */
+	public void start(double seconds) {
+		startNanos = System.nanoTime() - (long)(seconds * 1e9);
+		isRunning = true;
+		timer.restart();
+		updateText();
+	}
+
+	/**
+	 * Stops the clock.
+	 *
+	 * @return the number of seconds the clock ran
+	 */
+	public double stop() {
+		finishSeconds = getSeconds();
+		isRunning = false;
+		timer.stop();
+		updateText();
+		return finishSeconds;
+	}
+
+	public void reset() {
+		timer.stop();
+		isRunning = false;
+		finishSeconds = 0.0;
+		updateText();
+	}
+
+	public boolean isRunning() {
+		return isRunning;
+	}
+
+	public double getSeconds() {
+		if (isRunning) {
+			return (System.nanoTime() - startNanos) / 1e9;
+		} else {
+			return finishSeconds;
+		}
+	}
+
+	private void updateText() {
+		int secs = (int)getSeconds();
+		setText(String.format("%d:%02d", secs/60, secs%60));
+	}
+}
@@ -0,0 +1,14 @@
+package com.heliomug.games.minesweeper;
+
+/**
+ * This gets told about every change to a minefield's visible state, 
+ * for anything that wants to follow a game as it goes.  
+ * These get called a lot during a flood fill, so they should be quick.  
+ */
+public interface FieldListener {
+	public void fieldReset(MineField field);
+
+	public void cellOpened(MineField field, int x, int y);
+
+	public void cellFlagged(MineField field, int x, int y, boolean isFlag);
+}
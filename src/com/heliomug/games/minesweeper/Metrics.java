@@ -0,0 +1,258 @@
+package com.heliomug.games.minesweeper;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * This keeps counts and timings of the busy parts of the game, to see where time goes.
+ * It's off unless turned on, from the debug menu, over JMX, or with -Dminesweeper.metrics=true,
+ * and while it's off, each measuring spot costs one check of a static flag.
+ * Timings go like this:
+ * <pre>
+ *     long start = Metrics.start();
+ *     ...
+ *     Metrics.PAINT.stop(start);
+ * </pre>
+ */
+public class Metrics {
+	private static volatile boolean isEnabled = Boolean.getBoolean("minesweeper.metrics");
+
+	private static final List<Counter> COUNTERS = new ArrayList<>();
+	private static final List<Histogram> HISTOGRAMS = new ArrayList<>();
+
+	public static final Counter GAMES = new Counter("games");
+	public static final Counter CELLS_OPENED = new Counter("cellsOpened");
+
+	// nanoseconds
+	public static final Histogram CLICK = new Histogram("click", true);
+	public static final Histogram FINISH = new Histogram("finish", true);
+	public static final Histogram PAINT = new Histogram("paint", true);
+	public static final Histogram SCORE_IO = new Histogram("scoreIo", true);
+	public static final Histogram SAVE_IO = new Histogram("saveIo", true);
+	// cells
+	public static final Histogram FLOOD_FILL = new Histogram("floodFill", false);
+
+	public static boolean isEnabled() {
+		return isEnabled;
+	}
+
+	public static void setEnabled(boolean isEnabled) {
+		Metrics.isEnabled = isEnabled;
+	}
+
+	/**
+	 * @return the time to hand to {@link Histogram#stop(long)}, or 0 if metrics are off
+	 */
+	public static long start() {
+		return isEnabled ? System.nanoTime() : 0;
+	}
+
+	public static void reset() {
+		for (Counter counter : COUNTERS) {
+			counter.reset();
+		}
+		for (Histogram histogram : HISTOGRAMS) {
+			histogram.reset();
+		}
+	}
+
+	/**
+	 * @return one line per counter and histogram
+	 */
+	public static List<String> report() {
+		List<String> lines = new ArrayList<>();
+		for (Counter counter : COUNTERS) {
+			lines.add(String.format("%s: %d", counter.name, counter.get()));
+		}
+		for (Histogram histogram : HISTOGRAMS) {
+			String unit = histogram.isNanos ? "us" : "";
+			double scale = histogram.isNanos ? 1e-3 : 1;
+			lines.add(String.format("%s: %d, mean %.1f%s, p99 %.1f%s, max %.1f%s", histogram.name, histogram.getCount(),
+					histogram.getMean() * scale, unit, histogram.getPercentile(0.99) * scale, unit, histogram.getMax() * scale, unit));
+		}
+		return lines;
+	}
+
+	/**
+	 * Makes the metrics visible over JMX, as com.heliomug.games.minesweeper:type=Metrics.
+	 */
+	public static void register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+					new ObjectName("com.heliomug.games.minesweeper:type=Metrics"));
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * A running total.
+	 */
+	public static class Counter {
+		private final String name;
+		private final LongAdder count;
+
+		private Counter(String name) {
+			this.name = name;
+			this.count = new LongAdder();
+			COUNTERS.add(this);
+		}
+
+		public void add(long n) {
+			if (isEnabled) {
+				count.add(n);
+			}
+		}
+
+		public long get() {
+			return count.sum();
+		}
+
+		private void reset() {
+			count.reset();
+		}
+	}
+
+	/**
+	 * Values sorted into buckets by powers of two, so percentiles are only good to within a factor of two,
+	 * but recording one is a few atomic adds.
+	 */
+	public static class Histogram {
+		private final String name;
+		private final boolean isNanos;
+		// buckets[b] counts values from 2^(b - 1) up to 2^b, and buckets[0] counts zeros
+		private final AtomicLongArray buckets;
+		private final LongAdder count;
+		private final LongAdder sum;
+		private final AtomicLong max;
+
+		private Histogram(String name, boolean isNanos) {
+			this.name = name;
+			this.isNanos = isNanos;
+			this.buckets = new AtomicLongArray(65);
+			this.count = new LongAdder();
+			this.sum = new LongAdder();
+			this.max = new AtomicLong();
+			HISTOGRAMS.add(this);
+		}
+
+		/**
+		 * Records the time since <code>start</code>, which came from {@link Metrics#start()}.
+		 */
+		public void stop(long start) {
+			if (start != 0) {
+				record(System.nanoTime() - start);
+			}
+		}
+
+		public void record(long value) {
+			if (!isEnabled || value < 0) {
+				return;
+			}
+			buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+			count.increment();
+			sum.add(value);
+			long old;
+			while (value > (old = max.get()) && !max.compareAndSet(old, value)) {
+			}
+		}
+
+		public long getCount() {
+			return count.sum();
+		}
+
+		public double getMean() {
+			long n = count.sum();
+			return n == 0 ? 0.0 : (double)sum.sum() / n;
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		/**
+		 * @return the top of the bucket the given fraction of the way through the values
+		 */
+		public double getPercentile(double fraction) {
+			long n = count.sum();
+			long seen = 0;
+			for (int b = 0 ; b < buckets.length() ; b++) {
+				seen += buckets.get(b);
+				if (seen > 0 && seen >= fraction * n) {
+					return b == 0 ? 0.0 : Math.min(Math.pow(2, b), max.get());
+				}
+			}
+			return max.get();
+		}
+
+		private void reset() {
+			for (int b = 0 ; b < buckets.length() ; b++) {
+				buckets.set(b, 0);
+			}
+			count.reset();
+			sum.reset();
+			max.set(0);
+		}
+	}
+
+	private static class Bean implements MetricsMXBean {
+		@Override
+		public boolean isEnabled() {
+			return Metrics.isEnabled();
+		}
+
+		@Override
+		public void setEnabled(boolean isEnabled) {
+			Metrics.setEnabled(isEnabled);
+		}
+
+		@Override
+		public void reset() {
+			Metrics.reset();
+		}
+
+		@Override
+		public Map<String, Long> getCounts() {
+			Map<String, Long> counts = new LinkedHashMap<>();
+			for (Counter counter : COUNTERS) {
+				counts.put(counter.name, counter.get());
+			}
+			for (Histogram histogram : HISTOGRAMS) {
+				counts.put(histogram.name, histogram.getCount());
+			}
+			return counts;
+		}
+
+		@Override
+		public Map<String, Double> getMeans() {
+			Map<String, Double> means = new LinkedHashMap<>();
+			for (Histogram histogram : HISTOGRAMS) {
+				means.put(histogram.name, histogram.getMean());
+			}
+			return means;
+		}
+
+		@Override
+		public Map<String, Double> getP99s() {
+			Map<String, Double> p99s = new LinkedHashMap<>();
+			for (Histogram histogram : HISTOGRAMS) {
+				p99s.put(histogram.name, histogram.getPercentile(0.99));
+			}
+			return p99s;
+		}
+
+		@Override
+		public String[] getReport() {
+			return report().toArray(new String[0]);
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.Map;
+
+/**
+ * This is what {@link Metrics} shows over JMX.  Times are in nanoseconds.
+ */
+public interface MetricsMXBean {
+	public boolean isEnabled();
+
+	public void setEnabled(boolean isEnabled);
+
+	public void reset();
+
+	public Map<String, Long> getCounts();
+
+	public Map<String, Double> getMeans();
+
+	public Map<String, Double> getP99s();
+
+	public String[] getReport();
+}
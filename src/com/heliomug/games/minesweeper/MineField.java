@@ -0,0 +1,598 @@
+package com.heliomug.games.minesweeper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * This is the game logic for a single minefield, with no display attached.
+ * The Swing frame is just a view over one of these,
+ * and it can also be driven directly for simulations.
+ */
+public class MineField {
+	// how much of the board is kept clear of mines on the first click
+	public static final int SAFE_NONE = 0;
+	public static final int SAFE_CELL = 1;
+	public static final int SAFE_AREA = 2;
+
+	// the built-in difficulties, as name, width, height and mines, 
+	// here rather than in the frame so the batch tools don't have to load Swing to get them
+	static final Object[][] CONFIGS = {{"Easy", 9, 9, 10}, {"Medium", 16, 16, 40}, {"Hard", 30, 16, 99}};
+
+	// bits of the per-cell state byte
+	private static final byte MINE = 1;
+	private static final byte OPEN = 2;
+	private static final byte FLAG = 4;
+	// set while the cell is in the list of changes
+	private static final byte DIRTY = 8;
+
+	// one state byte per cell, indexed y * width + x
+	private final byte[] cells;
+	// number of mines in the 3x3 block around each cell, same indexing
+	private final byte[] counts;
+	// the mines packed one bit per cell for working out all the counts at once, see BitBoard
+	private final long[] mineBits;
+	// work queue for flood fill, sized so every cell fits once.
+	// Also used as the index deck when placing mines.
+	private final int[] queue;
+	// cells whose state has changed since the last clearChanges()
+	private final int[] changes;
+	private int changeCount;
+	private boolean isAllChanged;
+	private final int width;
+	private final int height;
+	private final int mines;
+
+	// running totals so the game-state queries don't have to scan the board
+	private int openSafe;
+	private int openMines;
+	private int flags;
+
+	// seed the current layout was generated from
+	private long seed;
+
+	private int safeStart;
+	private boolean isStarted;
+
+	private final List<FieldListener> listeners;
+
+	public MineField(int width, int height, int mines) {
+		if (mines < 0 || mines > width * height) {
+			throw new IllegalArgumentException(String.format("Can't fit %d mines in %d X %d", mines, width, height));
+		}
+		this.width = width;
+		this.height = height;
+		this.mines = mines;
+		this.cells = new byte[width * height];
+		this.counts = new byte[width * height];
+		this.mineBits = new long[BitBoard.wordsPerRow(width) * height];
+		this.queue = new int[width * height];
+		this.changes = new int[width * height];
+		this.safeStart = SAFE_CELL;
+		this.listeners = new ArrayList<>();
+		reset();
+	}
+
+	/**
+	 * Generates a new layout from a random seed.  
+	 */
+	public void reset() {
+		reset(ThreadLocalRandom.current().nextLong());
+	}
+
+	/**
+	 * Generates a new layout from the given seed.  
+	 * The same seed on the same size field (and the same first click, 
+	 * unless safe start is off) always gives the same layout.  
+	 * The mines are all laid out here, whatever the safe start, so a field can be made ready 
+	 * ahead of time and the first click only has to move the few that are in its way.  
+	 */
+	public void reset(long seed) {
+		this.seed = seed;
+		Arrays.fill(cells, (byte)0);
+		isStarted = false;
+		placeMines();
+		clearPlay();
+	}
+
+	/**
+	 * Closes every cell and takes away every flag, but keeps the mines where they are.  
+	 * Once the game has started, the first click isn't protected this time.  
+	 */
+	public void restart() {
+		for (int i = 0 ; i < cells.length ; i++) {
+			cells[i] &= MINE;
+		}
+		clearPlay();
+	}
+
+	private void clearPlay() {
+		openSafe = 0;
+		openMines = 0;
+		flags = 0;
+		changeCount = 0;
+		isAllChanged = true;
+		for (int n = 0 ; n < listeners.size() ; n++) {
+			listeners.get(n).fieldReset(this);
+		}
+	}
+
+	public void addListener(FieldListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(FieldListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Whether anything is following the field, so it isn't safe to hand to another thread.  
+	 */
+	boolean hasListeners() {
+		return !listeners.isEmpty();
+	}
+
+	/**
+	 * Sets how the first click is protected.  
+	 * With SAFE_NONE the mines stay where reset laid them out.  
+	 * Otherwise any mines in the first cell opened (or its 3x3 block, for SAFE_AREA) 
+	 * are moved out of it then.  
+	 * Takes effect on the next first click.  
+	 */
+	public void setSafeStart(int safeStart) {
+		this.safeStart = safeStart;
+	}
+
+	public int getSafeStart() {
+		return safeStart;
+	}
+
+	/**
+	 * Partial Fisher-Yates shuffle: the first <code>mines</code> entries of the deck
+	 * end up as a uniform random choice of cells, with no retries.  
+	 */
+	private void placeMines() {
+		SplittableRandom random = new SplittableRandom(seed);
+		int[] deck = queue;
+		int size = cells.length;
+		for (int i = 0 ; i < size ; i++) {
+			deck[i] = i;
+		}
+		// the counts are worked out all at once afterwards, from the mines packed into bits
+		int words = BitBoard.wordsPerRow(width);
+		Arrays.fill(mineBits, 0);
+		for (int i = 0 ; i < mines ; i++) {
+			int j = i + random.nextInt(size - i);
+			int cell = deck[j];
+			deck[j] = deck[i];
+			deck[i] = cell;
+			cells[cell] |= MINE;
+			int column = cell % width;
+			mineBits[cell / width * words + (column >>> 6)] |= 1L << column;
+		}
+		BitBoard.count(mineBits, width, height, counts);
+	}
+
+	/**
+	 * Moves any mines within <code>radius</code> of (x, y) to cells outside it that don't have one, 
+	 * each picked at random.  The mines already outside are a uniform random choice of those cells, 
+	 * so the layout that comes out is a uniform choice of the cells outside the block, 
+	 * just as if the mines had been laid out around it in the first place.  
+	 * The random numbers come from the seed, so the same seed and first click give the same layout.  
+	 */
+	private void clearAround(int x, int y, int radius) {
+		if (radius < 0) {
+			return;
+		}
+		SplittableRandom random = new SplittableRandom(seed).split();
+		for (int j = Math.max(y - radius, 0) ; j <= Math.min(y + radius, height - 1) ; j++) {
+			for (int i = Math.max(x - radius, 0) ; i <= Math.min(x + radius, width - 1) ; i++) {
+				if (isMine(i, j)) {
+					int to = freeCellOutside(random, x, y, radius);
+					moveMine(i, j, to % width, to / width);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Picks a cell without a mine, outside the block of the given radius around (x, y), at random.  
+	 * Guessing is quick unless nearly everything is mines, so after a few misses 
+	 * this counts the candidates and picks one of them instead.  
+	 * There's always at least one, since the field isn't too crowded to keep the block clear.  
+	 */
+	private int freeCellOutside(SplittableRandom random, int x, int y, int radius) {
+		for (int tries = 0 ; tries < 64 ; tries++) {
+			int cell = random.nextInt(cells.length);
+			if (isFreeOutside(cell, x, y, radius)) {
+				return cell;
+			}
+		}
+		int free = 0;
+		for (int cell = 0 ; cell < cells.length ; cell++) {
+			if (isFreeOutside(cell, x, y, radius)) {
+				free++;
+			}
+		}
+		int pick = random.nextInt(free);
+		for (int cell = 0 ; ; cell++) {
+			if (isFreeOutside(cell, x, y, radius) && pick-- == 0) {
+				return cell;
+			}
+		}
+	}
+
+	private boolean isFreeOutside(int cell, int x, int y, int radius) {
+		return !has(cell, MINE) && (Math.abs(cell % width - x) > radius || Math.abs(cell / width - y) > radius);
+	}
+
+	// number of cells left over for mines if the block of the given radius around (x, y) is kept clear
+	private int cellsOutside(int x, int y, int radius) {
+		int w = Math.min(x + radius, width - 1) - Math.max(x - radius, 0) + 1;
+		int h = Math.min(y + radius, height - 1) - Math.max(y - radius, 0) + 1;
+		return cells.length - w * h;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getMines() {
+		return mines;
+	}
+
+	public boolean isStarted() {
+		return isStarted;
+	}
+
+	public boolean isMine(int x, int y) {
+		return has(index(x, y), MINE);
+	}
+
+	public boolean isOpen(int x, int y) {
+		return has(index(x, y), OPEN);
+	}
+
+	public boolean isFlag(int x, int y) {
+		return has(index(x, y), FLAG);
+	}
+
+	private int index(int x, int y) {
+		return y * width + x;
+	}
+
+	private boolean has(int i, byte bit) {
+		return (cells[i] & bit) != 0;
+	}
+
+	public boolean inBounds(int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+
+	public int minesLeft() {
+		return mines - flags;
+	}
+
+	/**
+	 * This counts the cell itself too, so it only matches the number shown
+	 * on the cell when the cell isn't a mine.
+	 */
+	public int minesAround(int x, int y) {
+		return counts[index(x, y)];
+	}
+
+	private void placeMine(int x, int y) {
+		cells[index(x, y)] |= MINE;
+		adjustCounts(x, y, 1);
+	}
+
+	/**
+	 * Moves a mine to a cell without one, for fixing up layouts.  
+	 * Neither cell can be open.  The numbers on open cells nearby change, 
+	 * so anything following the field has to start over.  
+	 */
+	void moveMine(int fromX, int fromY, int toX, int toY) {
+		cells[index(fromX, fromY)] &= ~MINE;
+		adjustCounts(fromX, fromY, -1);
+		placeMine(toX, toY);
+	}
+
+	private void adjustCounts(int x, int y, int delta) {
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				if (inBounds(i, j)) {
+					counts[index(i, j)] += delta;
+				}
+			}
+		}
+	}
+
+	public int flagsAround(int x, int y) {
+		int count = 0;
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				if (inBounds(i, j) && (cells[index(i, j)] & (OPEN | FLAG)) == FLAG) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public boolean isWinner() {
+		return openSafe == cells.length - mines;
+	}
+
+	public boolean isLoser() {
+		return openMines > 0;
+	}
+
+	/**
+	 * Opens the cell at (x, y), and everything around it if it has no mines nearby.
+	 * If this is the first move and safe start is on, any mines on the cell 
+	 * (or around it, for SAFE_AREA) are moved somewhere else first.  
+	 * If the field is too crowded to keep the whole 3x3 block clear,
+	 * only the cell itself is kept clear, and if even that won't fit, nothing is.  
+	 * Opening a flagged cell does nothing, and doesn't count as the first move.  
+	 */
+	public void open(int x, int y) {
+		int i = index(x, y);
+		if (has(i, FLAG)) {
+			return;
+		}
+		if (!isStarted && !has(i, OPEN) && safeStart != SAFE_NONE) {
+			int radius = safeStart == SAFE_AREA ? 1 : 0;
+			while (radius >= 0 && cellsOutside(x, y, radius) < mines) {
+				radius--;
+			}
+			clearAround(x, y, radius);
+		}
+		isStarted = true;
+		if (Metrics.isEnabled()) {
+			int before = openSafe + openMines;
+			openFrom(x, y);
+			Metrics.FLOOD_FILL.record(openSafe + openMines - before);
+			Metrics.CELLS_OPENED.add(openSafe + openMines - before);
+		} else {
+			openFrom(x, y);
+		}
+	}
+
+	/**
+	 * Breadth-first flood fill over cells with no mines around them.
+	 * Cells are marked open as they're queued, so each one is queued at most once.
+	 */
+	private void openFrom(int x, int y) {
+		int start = index(x, y);
+		if (has(start, FLAG)) {
+			return;
+		}
+		if (!has(start, OPEN)) {
+			markOpen(start);
+		}
+		if (counts[start] != 0) {
+			return;
+		}
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = start;
+		while (head < tail) {
+			int cell = queue[head++];
+			int cx = cell % width;
+			int cy = cell / width;
+			for (int i = cx - 1 ; i <= cx + 1 ; i++) {
+				for (int j = cy - 1 ; j <= cy + 1 ; j++) {
+					if (inBounds(i, j)) {
+						int n = index(i, j);
+						if ((cells[n] & (OPEN | FLAG)) == 0) {
+							markOpen(n);
+							if (counts[n] == 0) {
+								queue[tail++] = n;
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	private void markOpen(int i) {
+		cells[i] |= OPEN;
+		markChanged(i);
+		if (has(i, MINE)) {
+			openMines++;
+		} else {
+			openSafe++;
+		}
+		for (int n = 0 ; n < listeners.size() ; n++) {
+			listeners.get(n).cellOpened(this, i % width, i / width);
+		}
+	}
+
+	public void toggleFlag(int x, int y) {
+		int i = index(x, y);
+		cells[i] ^= FLAG;
+		markChanged(i);
+		if (!has(i, OPEN)) {
+			flags += has(i, FLAG) ? 1 : -1;
+		}
+		for (int n = 0 ; n < listeners.size() ; n++) {
+			listeners.get(n).cellFlagged(this, x, y, has(i, FLAG));
+		}
+	}
+
+	/**
+	 * Whether chording at (x, y) would do anything: the game has started 
+	 * and the number of flags around it matches the number of mines around it.  
+	 * Before the first cell is opened there are no mines to count yet, so there's nothing to chord.  
+	 */
+	public boolean canChord(int x, int y) {
+		return isStarted && flagsAround(x, y) == minesAround(x, y);
+	}
+
+	/**
+	 * Opens everything around (x, y) if {@link #canChord(int, int)}.
+	 *
+	 * @return whether anything was opened
+	 */
+	public boolean chord(int x, int y) {
+		if (!canChord(x, y)) {
+			return false;
+		}
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				if (inBounds(i, j)) {
+					open(i, j);
+				}
+			}
+		}
+		return true;
+	}
+
+	public void flagAll() {
+		for (int i = 0 ; i < cells.length ; i++) {
+			if (!has(i, FLAG)) {
+				cells[i] |= FLAG;
+				for (int n = 0 ; n < listeners.size() ; n++) {
+					listeners.get(n).cellFlagged(this, i % width, i / width, true);
+				}
+			}
+		}
+		flags = cells.length - openSafe - openMines;
+		isAllChanged = true;
+	}
+
+	private void markChanged(int i) {
+		if (!has(i, DIRTY)) {
+			cells[i] |= DIRTY;
+			changes[changeCount++] = i;
+		}
+	}
+
+	/**
+	 * Whether everything should be treated as changed, 
+	 * like after a reset, regardless of the list of changes.  
+	 */
+	public boolean isAllChanged() {
+		return isAllChanged;
+	}
+
+	public int getChangeCount() {
+		return changeCount;
+	}
+
+	public int getChangedX(int n) {
+		return changes[n] % width;
+	}
+
+	public int getChangedY(int n) {
+		return changes[n] / width;
+	}
+
+	/**
+	 * Call this once the view has caught up with the changes.  
+	 */
+	public void clearChanges() {
+		for (int n = 0 ; n < changeCount ; n++) {
+			cells[changes[n]] &= ~DIRTY;
+		}
+		changeCount = 0;
+		isAllChanged = false;
+	}
+
+	/**
+	 * Writes where the mines are, then what's open, then what's flagged, 
+	 * each as one bit per cell packed into longs, lowest cell in the lowest bit.  
+	 */
+	void writeBits(ByteBuffer buffer) {
+		byte[] bits = {MINE, OPEN, FLAG};
+		for (byte bit : bits) {
+			for (int start = 0 ; start < cells.length ; start += 64) {
+				long word = 0;
+				int end = Math.min(start + 64, cells.length);
+				for (int i = start ; i < end ; i++) {
+					if ((cells[i] & bit) != 0) {
+						word |= 1L << (i - start);
+					}
+				}
+				buffer.putLong(word);
+			}
+		}
+	}
+
+	/**
+	 * Reads back what writeBits() wrote, and everything following the field starts over.  
+	 * Before the first click the mines are laid out from the seed rather than read, 
+	 * since older files didn't have them placed yet.  
+	 */
+	void readBits(ByteBuffer buffer, long seed, boolean isStarted) {
+		this.seed = seed;
+		this.isStarted = isStarted;
+		Arrays.fill(cells, (byte)0);
+		long[] mineBits = new long[(cells.length + 63) / 64];
+		byte[] bits = {MINE, OPEN, FLAG};
+		for (byte bit : bits) {
+			for (int start = 0 ; start < cells.length ; start += 64) {
+				long word = buffer.getLong();
+				if (bit == MINE) {
+					mineBits[start >>> 6] = word;
+				}
+				while (word != 0) {
+					cells[start + Long.numberOfTrailingZeros(word)] |= bit;
+					word &= word - 1;
+				}
+			}
+		}
+		if (isStarted) {
+			BitBoard.count(BitBoard.fromFlat(mineBits, width, height), width, height, counts);
+		} else {
+			for (int i = 0 ; i < cells.length ; i++) {
+				cells[i] &= ~MINE;
+			}
+			placeMines();
+		}
+		openSafe = 0;
+		openMines = 0;
+		flags = 0;
+		for (int i = 0 ; i < cells.length ; i++) {
+			if (has(i, OPEN)) {
+				if (has(i, MINE)) {
+					openMines++;
+				} else {
+					openSafe++;
+				}
+			} else if (has(i, FLAG)) {
+				flags++;
+			}
+		}
+		changeCount = 0;
+		isAllChanged = true;
+		for (int n = 0 ; n < listeners.size() ; n++) {
+			listeners.get(n).fieldReset(this);
+		}
+	}
+
+	/*
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int y = 0 ; y < height ; y++) {
+			for (int x = 0 ; x < width ; x++) {
+				sb.append(isMine(x, y) ? "X" : minesAround(x, y));
+			}
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+	*/
+}
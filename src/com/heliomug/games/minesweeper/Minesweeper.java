@@ -2,13 +2,13 @@ package com.heliomug.games.minesweeper;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
+import java.awt.Cursor;
 import java.awt.Dimension;
 import java.awt.EventQueue;
-import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.GridLayout;
+import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -16,15 +16,19 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.geom.Ellipse2D;
-import java.awt.geom.Rectangle2D;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
 
 import javax.swing.JButton;
 import javax.swing.JDialog;
@@ -35,10 +39,11 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
 import javax.swing.JSlider;
+import javax.swing.JViewport;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
-import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -47,61 +52,70 @@ import javax.swing.event.ChangeListener;
  * This is a fake comment just to test out git check ins, etc.  
  */
 public class Minesweeper extends JFrame {
-	// color constants
-	private static final int DARK = 64;
-	private static final int MEDIUM = 128;
-	private static final int BRIGHT = 255;
-	
 	// constants for phase of game
 	private static final int BEFORE_GAME = 0;
 	private static final int DURING_GAME = 1;
 	private static final int AFTER_GAME = 2;
 	
-	// This is a set of colors to use for the game.  
-	// They are the colors for the cells of varying mine counts.  
-	private static final Color[] COLORS = {
-		new Color(192, 192, 192), 
-		new Color(MEDIUM, MEDIUM, BRIGHT),
-		new Color(MEDIUM, BRIGHT, MEDIUM),
-		new Color(BRIGHT, MEDIUM, MEDIUM),
-		new Color(0, 0, BRIGHT),
-		new Color(0, MEDIUM, 0),
-		new Color(MEDIUM, 0, 0),
-		new Color(MEDIUM, MEDIUM, MEDIUM),
-		new Color(0, 0, 0)
-	};
-
 	// This is an array of pixel sizes for each cell on a side.  
 	private static final int[] CELL_SIZES = {10, 15, 20, 25, 30, 35, 40};
 
 	// This is the default selection from the above.  
 	private static final int DEFAULT_SIZE = 20;
-	private static final Object[][] CONFIGS = {{"Easy", 9, 9, 10}, {"Medium", 16, 16, 40}, {"Hard", 30, 16, 99}};
 	private static final int DEFAULT_CONFIG = 1;
 	private static final boolean DEFAULT_NUMBERS_ON = true;
+	private static final boolean DEFAULT_NO_GUESS = false;
+	
+	// fresh boards kept ready for new games, at most this many of a size and this many bytes in all
+	private static final int POOL_BOARDS = 2;
+	private static final long POOL_BYTES = 64L << 20;
+	
+	// size and color of the debug overlay
+	private static final int DEBUG_WIDTH = 360;
+	private static final int DEBUG_LINE_HEIGHT = 14;
+	private static final Color DEBUG_BACKGROUND = new Color(0, 0, 0, 160);
 	
 	private static final long serialVersionUID = -913399936352121840L;
 
-	private Cell[][] cells;
+	private MineField field;
+	// only set while the mine odds are being shown
+	private Solver solver;
+	private Probabilities odds;
 	private int mines;
 	private int width;
 	private int height;
 	
 	private int phase;
+	private Persistence io;
+	private BoardPool pool;
+	// the moves of the game so far, from the first one; null until then, or for a loaded game
+	private Replay replay;
+	private boolean isRecording;
 	private Scores scores;
 	private int difficulty;
 	
-	private long startTime; 
+	private ClockLabel clock;
 	private double finishTime; 
 	
 	JPanel board;
+	private JScrollPane scroller;
+	private JPanel infoPanel;
 
 	private int pix;
-	private Font font;
+	private TileSet tiles;
 	private boolean isNumbersOn;
+	private boolean isNoGuess;
+	private boolean isDebugOn;
+	// whether the overlay turned metrics on, rather than the command line or JMX
+	private boolean isMetricsFromDebug;
+	// lays out no-guess fields away from the event dispatch thread
+	private ExecutorService layouts;
+	// counts layouts asked for, so one that finishes after a new game has started is thrown away
+	private int layoutRequest;
+	private boolean isLayingOut;
 	
 	public Minesweeper() {
-		this(CONFIGS[DEFAULT_CONFIG], DEFAULT_CONFIG);
+		this(MineField.CONFIGS[DEFAULT_CONFIG], DEFAULT_CONFIG);
 	}
 	
 	private Minesweeper(Object[] config, int configNumber) {
@@ -110,8 +124,21 @@ public class Minesweeper extends JFrame {
 	
 	public Minesweeper(int width, int height, int mines, int configNumber) {
 		super("Minesweeper");
+		clock = new ClockLabel();
+		isNoGuess = DEFAULT_NO_GUESS;
+		pool = new BoardPool(POOL_BYTES, POOL_BOARDS);
+		layouts = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "Layout");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
 		setupGame(width, height, mines, configNumber);
-		scores = new Scores();
+		Metrics.register();
+		io = new Persistence();
+		scores = new Scores(io);
 		setupGUI();
 	}
 	
@@ -124,22 +151,18 @@ public class Minesweeper extends JFrame {
 	}
 
 	private void resetGame() {
-		cells = new Cell[height][width];
-		for (int y = 0 ; y < height ; y++) {
-			for (int x = 0 ; x < width ; x++) {
-				cells[y][x] = new Cell();
-			}
-		}
-		for (int i = 0 ; i < mines ; i++) {
-			int x, y;
-			do {
-				x = (int)(Math.random() * width);
-				y = (int)(Math.random() * height);
-			} while (cells[y][x].isMine);
-			cells[y][x].isMine = true;
+		MineField ready = pool.take(width, height, mines, MineField.SAFE_CELL);
+		if (ready != null || field == null || field.getWidth() != width || field.getHeight() != height || field.getMines() != mines) {
+			swapField(ready != null ? ready : new MineField(width, height, mines));
+		} else {
+			field.reset();
 		}
 		this.phase = BEFORE_GAME;
-		this.startTime = 0;
+		clock.reset();
+		replay = null;
+		isRecording = true;
+		stopLayingOut();
+		updateOdds();
 	}
 	
 	@SuppressWarnings("serial")
@@ -153,15 +176,25 @@ public class Minesweeper extends JFrame {
 			private static final long serialVersionUID = -2368428293416801104L;
 
 			public void paintComponent(Graphics graphics) {
-				//super.paintComponent(graphics);
+				// the viewport stretches the board to fill it, so clear whatever the cells don't cover
+				if (getWidth() > width * pix || getHeight() > height * pix) {
+					super.paintComponent(graphics);
+				}
 				Minesweeper.this.paintBoard(graphics);
+				if (isDebugOn) {
+					Minesweeper.this.paintDebug(graphics);
+				}
 			}
 		};
+		scroller = new JScrollPane(board);
 		board.addMouseListener(new MouseAdapter() {
 			@Override
 			public void mouseReleased(MouseEvent e) {
 				int cellX = e.getX() / pix;
 				int cellY = e.getY() / pix; 
+				if (!field.inBounds(cellX, cellY)) {
+					return;
+				}
 				if (phase == DURING_GAME || phase == BEFORE_GAME) {
 					if (SwingUtilities.isRightMouseButton(e) && SwingUtilities.isLeftMouseButton(e)) {
 						handleBothClick(cellX, cellY);
@@ -173,6 +206,17 @@ public class Minesweeper extends JFrame {
 				}
 			}
 		});
+		board.addMouseWheelListener(new MouseWheelListener() {
+			@Override
+			public void mouseWheelMoved(MouseWheelEvent e) {
+				if (e.isControlDown()) {
+					zoom(-e.getWheelRotation(), e.getPoint());
+				} else {
+					// the board listening for the wheel keeps the scroll pane from seeing it, so pass it on
+					scroller.dispatchEvent(SwingUtilities.convertMouseEvent(board, e, scroller));
+				}
+			}
+		});
 		board.addKeyListener(new KeyAdapter() {
 			@Override
 			public void keyReleased(KeyEvent e) {
@@ -181,18 +225,26 @@ public class Minesweeper extends JFrame {
 				} else if (e.getKeyCode() == KeyEvent.VK_F5) {
 					resetGame();
 					repaint();
+				} else if (e.getKeyCode() == KeyEvent.VK_S && e.isControlDown()) {
+					saveGame();
+				} else if (e.getKeyCode() == KeyEvent.VK_L && e.isControlDown()) {
+					loadGame();
+				} else if (e.getKeyCode() == KeyEvent.VK_EQUALS || e.getKeyCode() == KeyEvent.VK_ADD) {
+					zoom(1, viewCenter());
+				} else if (e.getKeyCode() == KeyEvent.VK_MINUS || e.getKeyCode() == KeyEvent.VK_SUBTRACT) {
+					zoom(-1, viewCenter());
 				}
 			}
 		});
 		board.setFocusable(true);
 		setCellSize(DEFAULT_SIZE);
-		panel.add(board, BorderLayout.CENTER);
+		panel.add(scroller, BorderLayout.CENTER);
 
-		JPanel infoPanel = new JPanel();
+		infoPanel = new JPanel();
 		infoPanel.setLayout(new GridLayout(1, 0));
 		infoPanel.add(new JLabel("Mines: ", SwingConstants.CENTER) {
 			public void paint(Graphics g) {
-				this.setText(String.format("Mines: %d", minesLeft()));
+				this.setText(String.format("Mines: %d", field.minesLeft()));
 				super.paint(g);
 			}
 		});		
@@ -201,7 +253,7 @@ public class Minesweeper extends JFrame {
 			public void paint(Graphics g) {
 				if (Minesweeper.this.phase == DURING_GAME || Minesweeper.this.phase == BEFORE_GAME) {
 					this.setText("Reset");
-				} else if (Minesweeper.this.isWinner()) {
+				} else if (Minesweeper.this.field.isWinner()) {
 					this.setText("Win!");
 				} else {
 					this.setText("Lose!");
@@ -217,20 +269,13 @@ public class Minesweeper extends JFrame {
 			}
 		});
 		infoPanel.add(button);		
-		infoPanel.add(new JLabel("Time: ", SwingConstants.CENTER) {
-			public void paint(Graphics g) {
-				int secs = (int)timeElapsed();
-				this.setText(String.format("%d:%02d", secs/60, secs%60));
-				super.paint(g);
-			}
-		});		
+		infoPanel.add(clock);		
 		panel.add(infoPanel, BorderLayout.NORTH);
 
 		setupMenus();
 	
 		this.add(panel);
-		this.pack();
-		this.setResizable(false);
+		fitFrame();
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		this.setVisible(true);
 	}
@@ -242,6 +287,22 @@ public class Minesweeper extends JFrame {
 		
 		menu = new JMenu("File");
 		menu.setMnemonic(KeyEvent.VK_F);
+		item = new JMenuItem("Save Game");
+		item.setMnemonic(KeyEvent.VK_S);
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				saveGame();
+			}
+		});
+		menu.add(item);
+		item = new JMenuItem("Load Game");
+		item.setMnemonic(KeyEvent.VK_L);
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				loadGame();
+			}
+		});
+		menu.add(item);
 		item = new JMenuItem("Exit");
 		item.setMnemonic(KeyEvent.VK_X);
 		item.addActionListener(new ActionListener() {
@@ -279,6 +340,7 @@ public class Minesweeper extends JFrame {
 		item.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Minesweeper.this.isNumbersOn = true;
+				Minesweeper.this.updateTiles();
 				Minesweeper.this.repaint();
 			}
 		});
@@ -287,6 +349,59 @@ public class Minesweeper extends JFrame {
 		item.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e) {
 				Minesweeper.this.isNumbersOn = false;
+				Minesweeper.this.updateTiles();
+				Minesweeper.this.repaint();
+			}
+		});
+		submenu.add(item);
+		menu.add(submenu);
+		submenu = new JMenu("No Guessing");
+		submenu.setMnemonic(KeyEvent.VK_G);
+		item = new JMenuItem("On");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Minesweeper.this.isNoGuess = true;
+			}
+		});
+		submenu.add(item);
+		item = new JMenuItem("Off");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Minesweeper.this.isNoGuess = false;
+			}
+		});
+		submenu.add(item);
+		menu.add(submenu);
+		submenu = new JMenu("Debug Overlay");
+		item = new JMenuItem("On");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Minesweeper.this.setDebugOn(true);
+			}
+		});
+		submenu.add(item);
+		item = new JMenuItem("Off");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Minesweeper.this.setDebugOn(false);
+			}
+		});
+		submenu.add(item);
+		menu.add(submenu);
+		submenu = new JMenu("Mine Odds");
+		submenu.setMnemonic(KeyEvent.VK_M);
+		item = new JMenuItem("On");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Minesweeper.this.setOddsOn(true);
+				Minesweeper.this.repaint();
+			}
+		});
+		submenu.add(item);
+		item = new JMenuItem("Off");
+		item.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				Minesweeper.this.setOddsOn(false);
 				Minesweeper.this.repaint();
 			}
 		});
@@ -307,7 +422,7 @@ public class Minesweeper extends JFrame {
 	}
 
 	private JMenuItem changeDifficultyItem(int notch) {
-		Object[] config = CONFIGS[notch];
+		Object[] config = MineField.CONFIGS[notch];
 		String name = (String)config[0] + ":";
 		int width = (int)config[1];
 		int height = (int)config[2];
@@ -329,43 +444,210 @@ public class Minesweeper extends JFrame {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				Minesweeper.this.setCellSize(CELL_SIZES[notch]);
+				Minesweeper.this.fitFrame();
 			}
 		});
 		return item;
 	}
 	
+	/**
+	 * @return the name of the built-in difficulty with this size, or a description of a custom one
+	 */
+	private static String configName(int width, int height, int mines) {
+		for (Object[] config : MineField.CONFIGS) {
+			if ((int)config[1] == width && (int)config[2] == height && (int)config[3] == mines) {
+				return (String)config[0];
+			}
+		}
+		return String.format("Custom %d X %d, %d mines", width, height, mines);
+	}
+
+	/**
+	 * The history is read on the persistence thread, and the dialog shown back on this one.  
+	 */
 	private void showScores() {
+		scores.whenReady(new Runnable() {
+			@Override
+			public void run() {
+				final String table = scoresTable();
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						JOptionPane.showMessageDialog(Minesweeper.this, table, "Top Scores", JOptionPane.PLAIN_MESSAGE);
+					}
+				});
+			}
+		});
+	}
+
+	private String scoresTable() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("<html><table>");
-		sb.append("<tr><th>Difficulty</th><th>Seconds</th></tr>");
-		for (int i = 0 ; i < 3 ; i++) {
-			String diff = (String)CONFIGS[i][0];
-			sb.append(String.format("<tr><td>%s</td><td>%.02f</td></tr>", diff, scores.getTopScore(i))); 
+		sb.append("<tr><th>Difficulty</th><th>Seconds</th><th>Won</th><th>Played</th></tr>");
+		List<int[]> configs = new ArrayList<>();
+		for (Object[] config : MineField.CONFIGS) {
+			configs.add(new int[] {(int)config[1], (int)config[2], (int)config[3]});
+		}
+		for (int[] config : scores.getConfigs()) {
+			if (configName(config[0], config[1], config[2]).startsWith("Custom")) {
+				configs.add(config);
+			}
+		}
+		for (int[] config : configs) {
+			int won = 0;
+			List<Scores.Game> games = scores.getGames(config[0], config[1], config[2]);
+			for (Scores.Game game : games) {
+				won += game.isWin ? 1 : 0;
+			}
+			sb.append(String.format("<tr><td>%s</td><td>%.02f</td><td>%d</td><td>%d</td></tr>", 
+					configName(config[0], config[1], config[2]), scores.getTopScore(config[0], config[1], config[2]), 
+					won, games.size())); 
 		}
 		sb.append("</table></html>");
-		JOptionPane.showMessageDialog(this, sb.toString(), "Top Scores", JOptionPane.PLAIN_MESSAGE);
+		return sb.toString();
 	}
 	
+	/**
+	 * Saves the game in progress, with Ctrl+S.  A game that's over isn't worth saving.  
+	 */
+	private void saveGame() {
+		if (phase == AFTER_GAME) {
+			return;
+		}
+		final ByteBuffer saved = new SavedGame(field, difficulty, clock.getSeconds()).toBuffer();
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					SavedGame.write(saved, new File(SavedGame.getSavePath()));
+				} catch (final IOException e) {
+					showError("Couldn't save the game: " + e.getMessage(), "Save Game");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Picks up the saved game, with Ctrl+L.  The clock carries on from where it was.  
+	 */
+	private void loadGame() {
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					final SavedGame saved = SavedGame.load(new File(SavedGame.getSavePath()));
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							resumeGame(saved);
+						}
+					});
+				} catch (IOException e) {
+					showError("Couldn't load the game: " + e.getMessage(), "Load Game");
+				}
+			}
+		});
+	}
+
+	private void resumeGame(SavedGame saved) {
+		stopLayingOut();
+		field = saved.getField();
+		// the moves before the save are gone, so this game can't be played back
+		replay = null;
+		isRecording = false;
+		width = field.getWidth();
+		height = field.getHeight();
+		mines = field.getMines();
+		difficulty = saved.getDifficulty();
+		if (odds != null) {
+			setOddsOn(true);
+		}
+		clock.reset();
+		if (field.isStarted()) {
+			phase = DURING_GAME;
+			clock.start(saved.getSeconds());
+		} else {
+			phase = BEFORE_GAME;
+		}
+		setCellSize(pix);
+		fitFrame();
+	}
+
+	/**
+	 * Shows an error from the persistence thread.  
+	 */
+	private void showError(final String message, final String title) {
+		EventQueue.invokeLater(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(Minesweeper.this, message, title, JOptionPane.ERROR_MESSAGE);
+			}
+		});
+	}
+
 	private void changeDifficulty(int w, int h, int m, int configNumber) {
 		setupGame(w, h, m, configNumber);
 		if (configNumber == 0 && pix < 25) {
 			pix = 25;
 		}
-		int maxW = (Toolkit.getDefaultToolkit().getScreenSize().width - 100)/ width;
-		int maxH = (Toolkit.getDefaultToolkit().getScreenSize().height - 100) / height;
-		pix = Math.min(maxW, Math.min(pix, maxH));
-		board.setPreferredSize(new Dimension(width * pix, height * pix));
-		Minesweeper.this.pack();
-		Minesweeper.this.repaint();
+		setCellSize(pix);
+		fitFrame();
 	}
 
 	private void setCellSize(int size) {
 		pix = size;
+		updateTiles();
 		board.setPreferredSize(new Dimension(width * pix, height * pix));
-		font = new Font("SansSerif", Font.BOLD, (int)(pix * .6));
-		this.pack();
+		board.revalidate();
+		scroller.getHorizontalScrollBar().setUnitIncrement(pix);
+		scroller.getVerticalScrollBar().setUnitIncrement(pix);
 		this.repaint();
 	}
+
+	/**
+	 * Sizes the frame to show the whole board, but no bigger than the screen; 
+	 * the scroll pane takes care of the rest.  
+	 */
+	private void fitFrame() {
+		this.pack();
+		Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+		this.setSize(Math.min(getWidth(), screen.width - 100), Math.min(getHeight(), screen.height - 100));
+	}
+
+	/**
+	 * Steps through the cell sizes, keeping the point under <code>anchor</code> (in board pixels) 
+	 * in the same place in the window.  
+	 */
+	private void zoom(int steps, Point anchor) {
+		int notch = 0;
+		while (notch < CELL_SIZES.length - 1 && CELL_SIZES[notch] < pix) {
+			notch++;
+		}
+		notch = Math.max(0, Math.min(CELL_SIZES.length - 1, notch + steps));
+		if (CELL_SIZES[notch] == pix) {
+			return;
+		}
+		JViewport viewport = scroller.getViewport();
+		Point view = viewport.getViewPosition();
+		double scale = (double)CELL_SIZES[notch] / pix;
+		setCellSize(CELL_SIZES[notch]);
+		scroller.validate();
+		int x = (int)(anchor.x * scale) - (anchor.x - view.x);
+		int y = (int)(anchor.y * scale) - (anchor.y - view.y);
+		Dimension extent = viewport.getExtentSize();
+		x = Math.max(0, Math.min(x, width * pix - extent.width));
+		y = Math.max(0, Math.min(y, height * pix - extent.height));
+		viewport.setViewPosition(new Point(x, y));
+	}
+
+	// the middle of what's showing, in board pixels
+	private Point viewCenter() {
+		Rectangle view = scroller.getViewport().getViewRect();
+		return new Point(view.x + view.width / 2, view.y + view.height / 2);
+	}
+	
+	private void updateTiles() {
+		if (tiles == null || tiles.getSize() != pix || tiles.isNumbersOn() != isNumbersOn) {
+			tiles = new TileSet(pix, isNumbersOn);
+		}
+	}
 	
 	private void configureCustomSize() {
 		JDialog dialog = new JDialog(this, "Set Custom Minefield");
@@ -423,305 +705,383 @@ public class Minesweeper extends JFrame {
 	}
 	
 	
-	private void setStartTime() {
-		startTime = System.currentTimeMillis();
-		Timer t = new Timer(1000, new ActionListener() {
+	private void winGame() {
+		field.flagAll();
+		repaintBoard();
+		saveReplay(true);
+		Metrics.GAMES.add(1);
+		String diff = configName(width, height, mines);
+		final String message = String.format("New top score for %s difficulty: %.02f seconds!", diff, finishTime);
+		scores.addGame(width, height, mines, finishTime, true, new Consumer<Boolean>() {
 			@Override
-			public void actionPerformed(ActionEvent e) {
-				Minesweeper.this.repaint();
+			public void accept(Boolean isTopScore) {
+				if (isTopScore) {
+					EventQueue.invokeLater(new Runnable() {
+						public void run() {
+							JOptionPane.showMessageDialog(Minesweeper.this, message, "New Top Score!", JOptionPane.PLAIN_MESSAGE);
+						}
+					});
+				}
 			}
 		});
-		t.start();
+		this.phase = AFTER_GAME;
 	}
 	
-	private double timeElapsed() {
-		if (phase == BEFORE_GAME) {
-			return 0.0;
-		} else if (phase == DURING_GAME) {
-			return (System.currentTimeMillis() - startTime) / 1000.0;
-		} else {
-			return finishTime;
-		}
+	private void loseGame() {
+		repaintBoard();
+		saveReplay(false);
+		Metrics.GAMES.add(1);
+		scores.addGame(width, height, mines, finishTime, false, null);
+		this.phase = AFTER_GAME;
 	}
 	
-	private int minesLeft() {
-		int count = mines;
-		for (int i = 0 ; i < width ; i++) {
-			for (int j = 0 ; j < height ; j++) {
-				if (!cells[j][i].isOpen && cells[j][i].isFlag) {
-					count--;
-				}
-			}
+	private void startClock() {
+		if (!clock.isRunning()) {
+			clock.start();
 		}
-		return count;
 	}
 
-	
-	private int minesAround(int x, int y) {
-		int count = 0;
-		for (int i = x - 1 ; i <= x + 1 ; i++) {
-			for (int j = y - 1 ; j <= y + 1 ; j++) {
-				if (inBounds(i, j) && cells[j][i].isMine) {
-					count++;
-				}
-			}
+	private void finish() {
+		long start = Metrics.start();
+		phase = DURING_GAME;
+		repaintChanges();
+		if (field.isWinner()) {
+			finishTime = clock.stop();
+			phase = AFTER_GAME;
+			winGame();
+		}
+		if (field.isLoser()) {
+			finishTime = clock.stop();
+			phase = AFTER_GAME;
+			loseGame();
+		}
+		if (phase == DURING_GAME) {
+			updateOdds();
+		}
+		Metrics.FINISH.stop(start);
+		if (isDebugOn) {
+			board.repaint(debugBounds());
 		}
-		return count;
 	}
 	
-	private int flagsAround(int x, int y) {
-		int count = 0;
-		for (int i = x - 1 ; i <= x + 1 ; i++) {
-			for (int j = y - 1 ; j <= y + 1 ; j++) {
-				if (inBounds(i, j) && !cells[j][i].isOpen && cells[j][i].isFlag) {
-					count++;
-				}
-			}
+	private void setOddsOn(boolean isOn) {
+		if (solver != null) {
+			solver.detach();
 		}
-		return count;
-	}
-
-	private boolean inBounds(int x, int y) {
-		return x >= 0 && x < width && y >= 0 && y < height;
+		solver = isOn ? new Solver(field) : null;
+		odds = isOn ? new Probabilities(field, solver) : null;
+		updateOdds();
 	}
 	
-
-	private void winGame() {
-		for (int i = 0 ; i < width ; i++) {
-			for (int j = 0 ; j < height ; j++) {
-				cells[j][i].isFlag = true;
+	/**
+	 * The odds of every hidden cell can change with any move, so this repaints the whole board.  
+	 */
+	private void updateOdds() {
+		if (odds != null) {
+			odds.compute();
+			if (board != null) {
+				board.repaint();
 			}
 		}
-		if (scores.isTopScore(finishTime, difficulty)) {
-			scores.setTopScore(finishTime, difficulty);
-			String diff = (String)CONFIGS[difficulty][0];
-			String message = String.format("New top score for %s difficulty: %.02f seconds!", diff, finishTime);
-			JOptionPane.showMessageDialog(this, message, "New Top Score!", JOptionPane.PLAIN_MESSAGE);
-		} 
-		this.phase = AFTER_GAME;
 	}
 	
-	private void loseGame() {
-		this.phase = AFTER_GAME;
-	}
-	
-	private boolean isWinner() {
-		for (int x = 0 ; x < width ; x++) {
-			for (int y = 0 ; y < height ; y++) {
-				if (!cells[y][x].isMine && !cells[y][x].isOpen) {
-					return false;
-				}
+	/**
+	 * Repaints just the part of the board the last move changed.  
+	 */
+	private void repaintChanges() {
+		if (field.isAllChanged()) {
+			board.repaint();
+		} else if (field.getChangeCount() > 0) {
+			int minX = width;
+			int minY = height;
+			int maxX = 0;
+			int maxY = 0;
+			for (int n = 0 ; n < field.getChangeCount() ; n++) {
+				minX = Math.min(minX, field.getChangedX(n));
+				minY = Math.min(minY, field.getChangedY(n));
+				maxX = Math.max(maxX, field.getChangedX(n));
+				maxY = Math.max(maxY, field.getChangedY(n));
 			}
+			// one extra pixel for the grid line on the far side
+			board.repaint(minX * pix, minY * pix, (maxX - minX + 1) * pix + 1, (maxY - minY + 1) * pix + 1);
 		}
-		return true;
+		field.clearChanges();
+		infoPanel.repaint();
 	}
-
-	private boolean isLoser() {
-		for (int x = 0 ; x < width ; x++) {
-			for (int y = 0 ; y < height ; y++) {
-				if (cells[y][x].isMine && cells[y][x].isOpen) {
-					return true;
-				}
-			}
-		}
-		return false;
+	
+	private void repaintBoard() {
+		field.clearChanges();
+		board.repaint();
+		infoPanel.repaint();
 	}
 	
+	private void paintBoard(Graphics g) {
+		long start = Metrics.start();
+		paintCells(g, field, tiles, phase == AFTER_GAME ? null : odds, phase == AFTER_GAME, pix);
+		Metrics.PAINT.stop(start);
+	}
 
-
-	private void openFrom(int x, int y) {
-		int count = 0;
-		while (phase == BEFORE_GAME && cells[y][x].isMine && count < 10) {
-			resetGame();
-			count++;
+	/**
+	 * Paints the cells that overlap the area being painted, with their odds if there are any.  
+	 * This doesn't need a window, so the {@link Benchmark} times it directly.  
+	 */
+	static void paintCells(Graphics g, MineField field, TileSet tiles, Probabilities odds, boolean isOver, int pix) {
+		// only visit the cells that overlap the area being painted
+		Rectangle clip = g.getClipBounds();
+		int minX = 0;
+		int minY = 0;
+		int maxX = field.getWidth() - 1;
+		int maxY = field.getHeight() - 1;
+		if (clip != null) {
+			minX = Math.max(minX, clip.x / pix);
+			minY = Math.max(minY, clip.y / pix);
+			maxX = Math.min(maxX, (clip.x + clip.width) / pix);
+			maxY = Math.min(maxY, (clip.y + clip.height) / pix);
 		}
 		
-		if (startTime == 0) {
-			setStartTime();
-		}
-		if (!cells[y][x].isFlag) {
-			cells[y][x].isOpen = true;
-			if (minesAround(x, y) == 0) {
-				for (int i = x - 1 ; i <= x + 1 ; i++) {
-					for (int j = y - 1 ; j <= y + 1 ; j++) {
-						if (inBounds(i, j) && !cells[j][i].isOpen) {
-							openFrom(i, j);
-						}
-					}
+		for (int x = minX ; x <= maxX ; x++) {
+			for (int y = minY ; y <= maxY ; y++) {
+				tiles.draw(g, tileFor(field, isOver, x, y), x * pix, y * pix);
+				if (odds != null && !field.isOpen(x, y)) {
+					tiles.drawOdds(g, odds.getMineChance(x, y), odds.isExact(x, y), x * pix, y * pix);
 				}
 			}
 		}
 	}
 
-	private void finish() {
-		phase = DURING_GAME;
-		repaint();
-		if (isWinner()) {
-			finishTime = timeElapsed();
-			phase = AFTER_GAME;
-			winGame();
+	/**
+	 * Turns metrics on or off along with the overlay that shows them.  
+	 * If they were already on when it opened, closing it leaves them on.  
+	 * While it's showing, the viewport can't just copy what it had when scrolling, 
+	 * or the overlay would scroll away with the board.  
+	 */
+	private void setDebugOn(boolean isOn) {
+		isDebugOn = isOn;
+		if (isOn && !Metrics.isEnabled()) {
+			Metrics.setEnabled(true);
+			isMetricsFromDebug = true;
+		} else if (!isOn && isMetricsFromDebug) {
+			Metrics.setEnabled(false);
+			isMetricsFromDebug = false;
 		}
-		if (isLoser()) {
-			finishTime = timeElapsed();
-			phase = AFTER_GAME;
-			loseGame();
+		scroller.getViewport().setScrollMode(isOn ? JViewport.SIMPLE_SCROLL_MODE : JViewport.BLIT_SCROLL_MODE);
+		board.repaint();
+	}
+
+	// where the overlay goes, in the top left of what's showing
+	private Rectangle debugBounds() {
+		Rectangle view = board.getVisibleRect();
+		return new Rectangle(view.x, view.y, DEBUG_WIDTH, DEBUG_LINE_HEIGHT * (Metrics.report().size() + 1));
+	}
+
+	private void paintDebug(Graphics g) {
+		Rectangle bounds = debugBounds();
+		g.setColor(DEBUG_BACKGROUND);
+		g.fillRect(bounds.x, bounds.y, bounds.width, bounds.height);
+		g.setColor(Color.WHITE);
+		int y = bounds.y;
+		for (String line : Metrics.report()) {
+			y += DEBUG_LINE_HEIGHT;
+			g.drawString(line, bounds.x + 4, y);
 		}
 	}
 	
-	private void paintBoard(Graphics graphics) {
-		Graphics2D g = (Graphics2D)graphics;
-		g.setFont(font);
-		FontMetrics fm = g.getFontMetrics();
-		
-		for (int x = 0 ; x < width ; x++) {
-			for (int y = 0 ; y < height ; y++) {
-				int m = minesAround(x, y);  
-				
-				if (cells[y][x].isOpen) {
-					if (cells[y][x].isMine) {
-						g.setColor(new Color(0, 0, 0));
-						g.fill(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-						g.setColor(new Color(BRIGHT, 0, 0));
-						g.fill(new Ellipse2D.Double(x * pix + pix / 4, y * pix + pix / 4, pix / 2, pix / 2));					
-					} else {
-						g.setColor(COLORS[m]);
-						g.fill(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-						if (isNumbersOn && m > 0) {
-							int xOff = fm.stringWidth(String.valueOf(m)) / 2;
-							int yOff = fm.getHeight()/ 2;
-							g.setColor(Color.BLACK);
-							if (m > 3) g.setColor(Color.WHITE);
-							g.drawString(String.valueOf(m), x * pix + pix/2 - xOff, y * pix + pix/2 + yOff);
-						}
-					}
-				} else {
-					if (phase == AFTER_GAME && cells[y][x].isFlag && !cells[y][x].isMine && !cells[y][x].isOpen) {
-						g.setColor(new Color(BRIGHT, 0, 0));
-						g.fill(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-						g.setColor(new Color(BRIGHT, BRIGHT, BRIGHT));
-						g.fill(new Rectangle2D.Double(x * pix + pix / 4, y * pix + pix / 4, pix / 2, pix / 2));					
-					} else if (phase == AFTER_GAME && cells[y][x].isMine && isLoser() && !cells[y][x].isFlag) {
-						g.setColor(new Color(DARK, DARK, DARK));
-						g.fill(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-						g.setColor(new Color(BRIGHT, 0, 0));
-						g.fill(new Ellipse2D.Double(x * pix + pix / 4, y * pix + pix / 4, pix / 2, pix / 2));					
-					} else if (cells[y][x].isFlag) {
-						g.setColor(new Color(DARK, DARK, DARK));
-						g.fill(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-						g.setColor(new Color(BRIGHT, BRIGHT, BRIGHT));
-						g.fill(new Rectangle2D.Double(x * pix + pix / 4, y * pix + pix / 4, pix / 2, pix / 2));					
-					} else {
-						g.setColor(new Color(DARK, DARK, DARK));
-						g.fill(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-					}
-				}
-				g.setColor(new Color(0, 0, 0));
-				g.draw(new Rectangle2D.Double(x * pix, y * pix, pix, pix));
-			}
+	private static int tileFor(MineField field, boolean isOver, int x, int y) {
+		if (field.isOpen(x, y)) {
+			return field.isMine(x, y) ? TileSet.EXPLODED : field.minesAround(x, y);
+		} else if (isOver && field.isFlag(x, y) && !field.isMine(x, y)) {
+			return TileSet.WRONG_FLAG;
+		} else if (isOver && field.isMine(x, y) && field.isLoser() && !field.isFlag(x, y)) {
+			return TileSet.MINE;
+		} else if (field.isFlag(x, y)) {
+			return TileSet.FLAG;
+		} else {
+			return TileSet.HIDDEN;
 		}
 	}
 	
 	
 	
-	private void handleBothClick(int x, int y) {
-		if (flagsAround(x, y) == minesAround(x, y)) {
-			for (int i = x - 1 ; i <= x + 1 ; i++) {
-				for (int j = y - 1 ; j <= y + 1 ; j++) {
-					if (inBounds(i, j)) {
-						openFrom(i, j);	
+	/**
+	 * Adds a move to the recording, before it's made.  
+	 */
+	private void record(int kind, int x, int y) {
+		if (!isRecording) {
+			return;
+		}
+		if (replay == null) {
+			replay = new Replay(field, isNoGuess);
+		}
+		replay.add(kind, x, y, (int)(clock.getSeconds() * 1000));
+	}
+
+	/**
+	 * Writes out the recording of a finished game, as the last game, and under its date too if it was a win.  
+	 */
+	private void saveReplay(boolean isWin) {
+		if (replay == null) {
+			return;
+		}
+		final ByteBuffer saved = replay.toBuffer();
+		final String name = isWin ? System.currentTimeMillis() + ".replay" : null;
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				File dir = new File(ReplayEngine.getReplayPath());
+				try {
+					dir.mkdirs();
+					byte[] bytes = Arrays.copyOf(saved.array(), saved.limit());
+					Files.write(new File(dir, "last.replay").toPath(), bytes);
+					if (name != null) {
+						Files.write(new File(dir, name).toPath(), bytes);
 					}
+				} catch (IOException e) {
+					e.printStackTrace();
 				}
 			}
-			finish();
+		});
+		replay = null;
+	}
+
+	private void handleBothClick(int x, int y) {
+		if (isLayingOut || !field.canChord(x, y)) {
+			return;
 		}
+		long start = Metrics.start();
+		record(Replay.CHORD, x, y);
+		startClock();
+		field.chord(x, y);
+		finish();
+		Metrics.CLICK.stop(start);
 	}
 	
 	private void handleLeftClick(int x, int y) {
-		openFrom(x, y);
+		// a flag keeps its cell from being opened, so the click isn't a move at all
+		if (isLayingOut || field.isFlag(x, y)) {
+			return;
+		}
+		if (isNoGuess && !field.isStarted()) {
+			record(Replay.OPEN, x, y);
+			layOutNoGuess(x, y);
+			return;
+		}
+		long start = Metrics.start();
+		record(Replay.OPEN, x, y);
+		startClock();
+		field.open(x, y);
 		finish();
+		Metrics.CLICK.stop(start);
 	}
 	
-	private void handleRightClick(int x, int y) {
-		cells[y][x].isFlag = !cells[y][x].isFlag;
-		finish();
+	/**
+	 * Lays out a no-guess field for a first click at (x, y) in the background, 
+	 * since that can take a while on a big field, then makes the click.  
+	 * The layout is done on a field of its own, so the solver behind the odds 
+	 * doesn't follow every trial layout, and it's swapped in when it's ready.  
+	 * Other clicks are ignored until then.  Flags put down before the click are carried over.  
+	 */
+	private void layOutNoGuess(final int x, final int y) {
+		final int request = ++layoutRequest;
+		final int width = this.width;
+		final int height = this.height;
+		final int mines = this.mines;
+		final int safeStart = field.getSafeStart();
+		final long seed = field.getSeed();
+		isLayingOut = true;
+		board.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+		layouts.execute(new Runnable() {
+			@Override
+			public void run() {
+				final MineField laidOut = new MineField(width, height, mines);
+				laidOut.setSafeStart(safeStart);
+				new NoGuessGenerator(laidOut).generate(seed, x, y);
+				EventQueue.invokeLater(new Runnable() {
+					public void run() {
+						if (request != layoutRequest) {
+							return;
+						}
+						stopLayingOut();
+						copyFlags(field, laidOut);
+						swapField(laidOut);
+						long start = Metrics.start();
+						startClock();
+						field.open(x, y);
+						finish();
+						Metrics.CLICK.stop(start);
+					}
+				});
+			}
+		});
 	}
-	
-	/*
-	public String toString() {
-		StringBuilder sb = new StringBuilder();
-		for (int y = 0 ; y < cells.length ; y++) {
-			for (int x = 0 ; x < cells[y].length ; x++) {
-				sb.append(cells[y][x].mine ? "X" : minesAround(x, y));
+
+	private static void copyFlags(MineField from, MineField to) {
+		for (int y = 0 ; y < from.getHeight() ; y++) {
+			for (int x = 0 ; x < from.getWidth() ; x++) {
+				if (from.isFlag(x, y) && !to.isFlag(x, y)) {
+					to.toggleFlag(x, y);
+				}
 			}
-			sb.append("\n");
 		}
-		return sb.toString();
 	}
-	*/
-	
-	private class Cell {
-		public boolean isMine;
-		public boolean isOpen;
-		public boolean isFlag;
-		
-		public Cell() {
-			isMine = false;
-			isOpen = false;
-			isFlag = false;
+
+	/**
+	 * Puts a new field in place of the one being played, with the odds following it if they're on.  
+	 * The old one goes back to the pool to be laid out again, once nothing here is following it.  
+	 */
+	private void swapField(MineField next) {
+		MineField old = field;
+		field = next;
+		if (odds != null) {
+			setOddsOn(true);
+		}
+		if (old != null && !old.hasListeners()) {
+			pool.recycle(old);
 		}
 	}
-	
-	private class Scores implements Serializable {
-		private static final long serialVersionUID = -6717488649767459992L;
 
-		double[] scores;
-		
-		public Scores() {
-			loadScores();
+	// forgets any layout still being worked on
+	private void stopLayingOut() {
+		layoutRequest++;
+		isLayingOut = false;
+		if (board != null) {
+			board.setCursor(null);
 		}
-		
-		public double getTopScore(int diff) {
-			return scores[diff];
+	}
+	
+	private void handleRightClick(int x, int y) {
+		if (isLayingOut) {
+			return;
 		}
-		
-		public boolean isTopScore(double time, int difficulty) {
-			if (difficulty < 0 || difficulty > 2) {
-				return false;
-			}
-			return time < scores[difficulty];
+		long start = Metrics.start();
+		record(Replay.FLAG, x, y);
+		field.toggleFlag(x, y);
+		finish();
+		Metrics.CLICK.stop(start);
+	}
+	
+	/**
+	 * With "-batch" first, this runs the {@link Simulator} on the rest of the arguments instead of opening a window.  
+	 * With "-replay" first, it plays back recorded games with the {@link ReplayEngine} instead.  
+	 * With "-server" first, it hosts races with a {@link RaceServer}, 
+	 * and with "-race" first, it loads a race server with bots from the {@link RaceClient}.  
+	 */
+	public static void main(String[] args) throws InterruptedException, IOException {
+		if (args.length > 0 && args[0].equals("-batch")) {
+			Simulator.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
 		}
-
-		public String getScoresPath() {
-			String scoreSavePath = ".minescores";
-			scoreSavePath = System.getProperty("user.home") + File.separator + scoreSavePath;
-			return scoreSavePath;
+		if (args.length > 0 && args[0].equals("-replay")) {
+			ReplayEngine.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
 		}
-		
-		public void setTopScore(double time, int difficulty) {
-			scores[difficulty] = time;
-			
-			File f = new File(getScoresPath());
-			try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(f))) {
-				oos.writeObject(scores);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+		if (args.length > 0 && args[0].equals("-server")) {
+			RaceServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
 		}
-		
-		public void loadScores() {
-			File f = new File(getScoresPath());
-			try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(f))) {
-				scores = (double[])ois.readObject();
-			} catch (IOException | ClassNotFoundException e) {
-				scores = new double[3];
-				for (int i = 0 ; i < scores.length ; i++) {
-					scores[i] = Double.POSITIVE_INFINITY;
-				}
-			}
+		if (args.length > 0 && args[0].equals("-race")) {
+			RaceClient.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
 		}
-	}
-	
-	public static void main(String[] args) {
 		EventQueue.invokeLater(new Runnable() {
 			public void run() {
 				new Minesweeper();
@@ -0,0 +1,134 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.SplittableRandom;
+
+/**
+ * This lays out mines so the whole field can be cleared from a given first click
+ * without ever having to guess.
+ * It plays the field out with a {@link Solver}, and wherever the solver gets stuck
+ * it moves one of the mines at the edge of what's open somewhere else and carries on
+ * from there, rather than throwing the whole layout away.
+ * Once that gets all the way through, the finished layout is played again from the start
+ * to make sure, since moving mines changes numbers that earlier moves relied on.
+ */
+public class NoGuessGenerator {
+	// mine moves to try on one layout before starting over with a new one
+	private static final int MAX_REPAIRS = 1000;
+	// new layouts to try before giving up
+	private static final int MAX_LAYOUTS = 20;
+
+	private final MineField field;
+	private final Solver solver;
+
+	/**
+	 * Anything else following the field sees every layout tried and every mine moved, 
+	 * so it's best to lay out a field nothing else is following yet.  
+	 */
+	public NoGuessGenerator(MineField field) {
+		this.field = field;
+		this.solver = new Solver(field);
+		solver.detach();
+	}
+
+	/**
+	 * Lays out the field from the seed so it can be solved without guessing from (x, y).
+	 * The field is left with nothing open, ready for the first click at (x, y).
+	 *
+	 * @return whether it worked; if not, the field has an ordinary layout
+	 */
+	public boolean generate(long seed, int x, int y) {
+		SplittableRandom random = new SplittableRandom(seed);
+		int oldSafeStart = field.getSafeStart();
+		field.setSafeStart(MineField.SAFE_AREA);
+		solver.attach();
+		try {
+			for (int layout = 0 ; layout < MAX_LAYOUTS ; layout++) {
+				field.reset(random.nextLong());
+				int repairs = 0;
+				boolean isStuck = false;
+				while (!isStuck && repairs < MAX_REPAIRS) {
+					field.restart();
+					field.open(x, y);
+					playOut();
+					if (field.isWinner()) {
+						field.restart();
+						return true;
+					}
+					while (!field.isWinner() && repairs < MAX_REPAIRS) {
+						if (!repair(random, x, y)) {
+							isStuck = true;
+							break;
+						}
+						repairs++;
+						solver.resync();
+						playOut();
+					}
+				}
+			}
+			field.restart();
+			return false;
+		} finally {
+			solver.detach();
+			field.setSafeStart(oldSafeStart);
+		}
+	}
+
+	// opens everything the solver can prove is safe
+	private void playOut() {
+		solver.solve();
+		int cell;
+		while ((cell = solver.nextSafeCell()) >= 0) {
+			field.open(cell % field.getWidth(), cell / field.getWidth());
+			solver.solve();
+		}
+	}
+
+	/**
+	 * Moves a mine from the stuck frontier to a cell away from it.
+	 * If there's nowhere away from the frontier to put it, it goes on another unknown frontier cell.
+	 *
+	 * @return whether a mine could be moved
+	 */
+	private boolean repair(SplittableRandom random, int x, int y) {
+		int width = field.getWidth();
+		int size = width * field.getHeight();
+		int from = pick(random, size, true, true, x, y);
+		if (from < 0) {
+			from = pick(random, size, true, false, x, y);
+		}
+		int to = pick(random, size, false, false, x, y);
+		if (to < 0) {
+			to = pick(random, size, false, true, x, y);
+		}
+		if (from < 0 || to < 0) {
+			return false;
+		}
+		field.moveMine(from % width, from / width, to % width, to / width);
+		return true;
+	}
+
+	/**
+	 * Picks an unknown cell at random with or without a mine, on the frontier or not,
+	 * leaving out the 3x3 block around the first click.
+	 *
+	 * @return the cell, or -1 if there's none like that
+	 */
+	private int pick(SplittableRandom random, int size, boolean isMine, boolean isFrontier, int x, int y) {
+		int width = field.getWidth();
+		int found = 0;
+		int picked = -1;
+		for (int cell = 0 ; cell < size ; cell++) {
+			int cx = cell % width;
+			int cy = cell / width;
+			if (solver.isUnknown(cell) && field.isMine(cx, cy) == isMine && solver.isFrontier(cell) == isFrontier
+					&& (Math.abs(cx - x) > 1 || Math.abs(cy - y) > 1)) {
+				// reservoir sampling, so one pass is enough
+				found++;
+				if (random.nextInt(found) == 0) {
+					picked = cell;
+				}
+			}
+		}
+		return picked;
+	}
+}
@@ -0,0 +1,105 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is the one background thread that does all the file reading and writing,
+ * so the event dispatch thread never has to wait on the disk.
+ * Tasks run one at a time in the order they're handed in.
+ * Whatever's still queued when the program exits gets finished first, for a few seconds at most.
+ */
+public class Persistence {
+	// how long to wait for queued writes when the program exits
+	private static final long SHUTDOWN_SECONDS = 5;
+
+	// null when tasks run right away on the thread that hands them in
+	private final ExecutorService writer;
+
+	public Persistence() {
+		this(false);
+	}
+
+	/**
+	 * @param isInline true to run each task on the thread that hands it in, before submit() returns.
+	 *                 The benchmarks use this so the file work is timed and counted on the thread they measure.
+	 */
+	Persistence(boolean isInline) {
+		if (isInline) {
+			writer = null;
+			return;
+		}
+		writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "Persistence");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Queues a task to run on the background thread.
+	 */
+	public void submit(final Runnable task) {
+		Runnable guarded = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					// one bad task shouldn't stop the ones after it
+					e.printStackTrace();
+				}
+			}
+		};
+		if (writer == null) {
+			guarded.run();
+		} else {
+			writer.execute(guarded);
+		}
+	}
+
+	/**
+	 * Waits until everything queued so far has run.
+	 */
+	public void flush() throws InterruptedException {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.submit(new Runnable() {
+				@Override
+				public void run() {
+				}
+			}).get();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Finishes what's queued and stops the thread.  Nothing can be queued after this.
+	 */
+	public void close() {
+		if (writer == null) {
+			return;
+		}
+		writer.shutdown();
+		try {
+			writer.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
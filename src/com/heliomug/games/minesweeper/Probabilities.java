@@ -0,0 +1,617 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This works out the chance that each hidden cell is a mine, from what's showing on a minefield.
+ * Each group of the frontier (see {@link Solver#getFrontierComponents()}) has its possible layouts
+ * counted by how many mines they use, and the groups are then weighed against each other and
+ * against the cells away from the frontier using the number of mines left.
+ * Groups that haven't changed since the last time are remembered instead of counted again.
+ * Small groups have every layout tried; bigger ones are swept through a cell at a time (see Group.sweep()).
+ * A group too big or too tangled even for that is treated like the cells away from the frontier,
+ * and {@link #isExact(int, int)} says so for its cells.
+ */
+public class Probabilities {
+	// frontier groups up to this size have every layout tried, which takes up to 2^size steps,
+	// so past this the sweep is quicker even for a loose chain of cells
+	private static final int MAX_SEARCH_SIZE = 16;
+	// bigger groups than this aren't counted, and their cells are treated like the interior
+	private static final int MAX_GROUP_SIZE = 1000;
+	// a sweep gives up past this many ways for the edge between done and not done to look
+	private static final int MAX_STATES = 1 << 14;
+	// or past about this many multiplications putting the two passes together
+	private static final long MAX_WORK = 50000000;
+	// counts are scaled down past this, to stay inside what a double can hold
+	private static final double MAX_COUNT = 1e200;
+
+	private final MineField field;
+	private final Solver solver;
+	private final int width;
+
+	private final double[] chances;
+	// cells whose chance is only a rough guess, because their group couldn't be counted
+	private final boolean[] isApproximate;
+	// log(n!) for every n up to the number of cells, for weighing layouts
+	private final double[] logFactorials;
+
+	// counted groups from the last time, keyed by their cells and numbers
+	private Map<Group, Group> groups;
+	private int safest;
+
+	public Probabilities(MineField field, Solver solver) {
+		this.field = field;
+		this.solver = solver;
+		this.width = field.getWidth();
+		this.chances = new double[field.getWidth() * field.getHeight()];
+		this.isApproximate = new boolean[chances.length];
+		this.logFactorials = new double[chances.length + 1];
+		for (int n = 1 ; n < logFactorials.length ; n++) {
+			logFactorials[n] = logFactorials[n - 1] + Math.log(n);
+		}
+		this.groups = new HashMap<>();
+		this.safest = -1;
+	}
+
+	/**
+	 * @return the chance from 0 to 1 that the cell is a mine, as of the last compute()
+	 */
+	public double getMineChance(int x, int y) {
+		return chances[y * width + x];
+	}
+
+	/**
+	 * @return whether the chance for the cell is worked out exactly, as of the last compute(), 
+	 * rather than guessed from the number of mines left
+	 */
+	public boolean isExact(int x, int y) {
+		return !isApproximate[y * width + x];
+	}
+
+	/**
+	 * @return the hidden cell least likely to be a mine, as of the last compute(), or -1 if there isn't one
+	 */
+	public int getSafestCell() {
+		return safest;
+	}
+
+	/**
+	 * Brings the solver up to date and works out the chances for every cell.
+	 */
+	public void compute() {
+		solver.solve();
+
+		List<Group> counted = new ArrayList<>();
+		Map<Group, Group> seen = new HashMap<>();
+		int frontier = 0;
+		Arrays.fill(isApproximate, false);
+		for (int[] component : solver.getFrontierComponents()) {
+			boolean isCounted = false;
+			if (component.length <= MAX_GROUP_SIZE) {
+				Group group = new Group(component);
+				Group old = groups.get(group);
+				if (old != null) {
+					group = old;
+				} else {
+					group.count();
+				}
+				seen.put(group, group);
+				isCounted = group.layouts != null;
+				if (isCounted) {
+					counted.add(group);
+					frontier += component.length;
+				}
+			}
+			if (!isCounted) {
+				for (int cell : component) {
+					isApproximate[cell] = true;
+				}
+			}
+		}
+		groups = seen;
+
+		// everything not in a counted group is interchangeable
+		int others = solver.getUnknownCount() - frontier;
+		int minesLeft = field.getMines() - solver.getKnownMines();
+		double[] weights = weights(others, minesLeft);
+
+		double[] total = new double[] {1.0};
+		if (!counted.isEmpty()) {
+			total = spread(counted, 0, counted.size(), new double[] {1.0}, weights, minesLeft);
+		}
+		double sum = 0.0;
+		double otherMines = 0.0;
+		for (int k = 0 ; k < total.length && k < weights.length ; k++) {
+			sum += total[k] * weights[k];
+			otherMines += total[k] * weights[k] * (minesLeft - k);
+		}
+		double otherChance = others > 0 && sum > 0 ? otherMines / sum / others : 0.0;
+
+		safest = -1;
+		for (int cell = 0 ; cell < chances.length ; cell++) {
+			int x = cell % width;
+			int y = cell / width;
+			if (solver.isKnownMine(x, y)) {
+				chances[cell] = 1.0;
+			} else if (solver.isKnownSafe(x, y)) {
+				chances[cell] = 0.0;
+			} else {
+				chances[cell] = otherChance;
+			}
+		}
+		for (Group group : counted) {
+			for (int n = 0 ; n < group.cells.length ; n++) {
+				chances[group.cells[n]] = sum > 0 ? group.chances[n] / sum : 0.0;
+			}
+		}
+		for (int cell = 0 ; cell < chances.length ; cell++) {
+			if (!field.isOpen(cell % width, cell / width) && (safest < 0 || chances[cell] < chances[safest])) {
+				safest = cell;
+			}
+		}
+	}
+
+	/**
+	 * weights[k] is proportional to the number of ways to put the rest of the mines
+	 * in the other cells when the counted groups use k of them.
+	 */
+	private double[] weights(int others, int minesLeft) {
+		double[] weights = new double[Math.max(minesLeft, 0) + 1];
+		double max = Double.NEGATIVE_INFINITY;
+		for (int k = 0 ; k < weights.length ; k++) {
+			int rest = minesLeft - k;
+			weights[k] = rest <= others ? logChoose(others, rest) : Double.NEGATIVE_INFINITY;
+			max = Math.max(max, weights[k]);
+		}
+		for (int k = 0 ; k < weights.length ; k++) {
+			weights[k] = max == Double.NEGATIVE_INFINITY ? 0.0 : Math.exp(weights[k] - max);
+		}
+		return weights;
+	}
+
+	private double logChoose(int n, int r) {
+		return logFactorials[n] - logFactorials[r] - logFactorials[n - r];
+	}
+
+	/**
+	 * Hands each group the combined mine counts of all the other groups,
+	 * splitting the list in half each time so no group's share is worked out from scratch.
+	 * Each group adds up, for each of its cells, the weight of every layout with a mine there.
+	 *
+	 * @return the combined mine counts of the groups from lo to hi
+	 */
+	private double[] spread(List<Group> list, int lo, int hi, double[] outside, double[] weights, int minesLeft) {
+		if (hi - lo == 1) {
+			Group group = list.get(lo);
+			// what the rest of the board is worth when this group has k mines
+			double[] rest = new double[group.layouts.length];
+			for (int k = 0 ; k < rest.length ; k++) {
+				for (int j = 0 ; j < outside.length && k + j < weights.length ; j++) {
+					rest[k] += outside[j] * weights[k + j];
+				}
+			}
+			group.chances = new double[group.cells.length];
+			for (int n = 0 ; n < group.cells.length ; n++) {
+				for (int k = 0 ; k < rest.length ; k++) {
+					group.chances[n] += group.mineLayouts[n][k] * rest[k];
+				}
+			}
+			return group.layouts;
+		}
+		int mid = (lo + hi) / 2;
+		double[] left = combined(list, lo, mid, minesLeft);
+		double[] right = combined(list, mid, hi, minesLeft);
+		spread(list, lo, mid, convolve(outside, right, minesLeft), weights, minesLeft);
+		spread(list, mid, hi, convolve(outside, left, minesLeft), weights, minesLeft);
+		return convolve(left, right, minesLeft);
+	}
+
+	private double[] combined(List<Group> list, int lo, int hi, int minesLeft) {
+		if (hi - lo == 1) {
+			return list.get(lo).layouts;
+		}
+		int mid = (lo + hi) / 2;
+		return convolve(combined(list, lo, mid, minesLeft), combined(list, mid, hi, minesLeft), minesLeft);
+	}
+
+	// counts of layouts by mine count, for two independent sets of cells together
+	private static double[] convolve(double[] a, double[] b, int minesLeft) {
+		double[] result = new double[Math.max(1, Math.min(a.length + b.length - 1, minesLeft + 1))];
+		for (int i = 0 ; i < a.length ; i++) {
+			for (int j = 0 ; j < b.length && i + j < result.length ; j++) {
+				result[i + j] += a[i] * b[j];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * One group of frontier cells, with the numbers that touch it.
+	 * Two groups are equal when they have the same cells and the same numbers
+	 * still to be filled, so their counts can be reused.
+	 */
+	private class Group {
+		private final int[] cells;
+		// cell index and mines still needed, for each number touching the group
+		private final int[] numbers;
+		// for each number, the positions in cells of the unknown cells around it
+		private final int[][] members;
+
+		// layouts[k] is the share of layouts with k mines in the group
+		private double[] layouts;
+		// mineLayouts[n][k] is the share of layouts with k mines that have one on cells[n]
+		private double[][] mineLayouts;
+		// weight of a mine on each cell, filled in by spread()
+		private double[] chances;
+
+		// search state
+		private int[] placed;
+		private int[] left;
+		private int[][] numbersOf;
+		private boolean[] isMine;
+
+		public Group(int[] cells) {
+			this.cells = cells;
+			Map<Integer, Integer> positions = new HashMap<>();
+			for (int n = 0 ; n < cells.length ; n++) {
+				positions.put(cells[n], n);
+			}
+			List<Integer> found = new ArrayList<>();
+			Map<Integer, Integer> numberIndex = new HashMap<>();
+			for (int cell : cells) {
+				int cx = cell % width;
+				int cy = cell / width;
+				for (int j = cy - 1 ; j <= cy + 1 ; j++) {
+					for (int i = cx - 1 ; i <= cx + 1 ; i++) {
+						if (field.inBounds(i, j) && field.isOpen(i, j) && !numberIndex.containsKey(j * width + i)) {
+							numberIndex.put(j * width + i, found.size());
+							found.add(j * width + i);
+						}
+					}
+				}
+			}
+			numbers = new int[found.size() * 2];
+			members = new int[found.size()][];
+			for (int c = 0 ; c < found.size() ; c++) {
+				int number = found.get(c);
+				int nx = number % width;
+				int ny = number / width;
+				int needed = field.minesAround(nx, ny);
+				int[] around = new int[8];
+				int size = 0;
+				for (int j = ny - 1 ; j <= ny + 1 ; j++) {
+					for (int i = nx - 1 ; i <= nx + 1 ; i++) {
+						if (field.inBounds(i, j)) {
+							if (solver.isKnownMine(i, j)) {
+								needed--;
+							} else if (positions.containsKey(j * width + i)) {
+								around[size++] = positions.get(j * width + i);
+							}
+						}
+					}
+				}
+				numbers[c * 2] = number;
+				numbers[c * 2 + 1] = needed;
+				members[c] = Arrays.copyOf(around, size);
+			}
+		}
+
+		/**
+		 * Counts the layouts of mines in the group that fit the numbers, 
+		 * or leaves layouts null if there are too many to count.
+		 */
+		public void count() {
+			int size = cells.length;
+			int[] touching = new int[size];
+			for (int c = 0 ; c < members.length ; c++) {
+				for (int n : members[c]) {
+					touching[n]++;
+				}
+			}
+			numbersOf = new int[size][];
+			for (int n = 0 ; n < size ; n++) {
+				numbersOf[n] = new int[touching[n]];
+			}
+			Arrays.fill(touching, 0);
+			for (int c = 0 ; c < members.length ; c++) {
+				for (int n : members[c]) {
+					numbersOf[n][touching[n]++] = c;
+				}
+			}
+			if (size <= MAX_SEARCH_SIZE) {
+				layouts = new double[size + 1];
+				mineLayouts = new double[size][size + 1];
+				placed = new int[members.length];
+				left = new int[members.length];
+				for (int c = 0 ; c < members.length ; c++) {
+					left[c] = members[c].length;
+				}
+				isMine = new boolean[size];
+				search(0, 0);
+			} else if (!sweep()) {
+				layouts = null;
+				mineLayouts = null;
+				numbersOf = null;
+				return;
+			}
+
+			double total = 0.0;
+			for (double count : layouts) {
+				total += count;
+			}
+			if (total > 0) {
+				for (int k = 0 ; k <= size ; k++) {
+					layouts[k] /= total;
+					for (int n = 0 ; n < size ; n++) {
+						mineLayouts[n][k] /= total;
+					}
+				}
+			}
+			placed = null;
+			left = null;
+			numbersOf = null;
+			isMine = null;
+		}
+
+		/**
+		 * Counts the layouts a cell at a time, in the order the solver found the cells, 
+		 * which keeps cells that share numbers close together.  
+		 * All that matters about a partial layout for what comes next is how many mines it's given 
+		 * each number that touches both the cells done and the cells to go, so partial layouts that 
+		 * agree on those are counted together, by how many mines they use.  
+		 * A pass back from the end counts the ways to finish each of those, 
+		 * and the two passes together give the layouts with a mine on each cell.  
+		 *
+		 * @return false if there were too many ways for the numbers in between to stand
+		 */
+		private boolean sweep() {
+			int size = cells.length;
+			// give each number a place in the state while it's between its first and last cell
+			int[] slotOf = new int[members.length];
+			int[] lastOf = new int[members.length];
+			List<List<Integer>> starting = new ArrayList<>();
+			List<List<Integer>> ending = new ArrayList<>();
+			for (int n = 0 ; n < size ; n++) {
+				starting.add(new ArrayList<Integer>());
+				ending.add(new ArrayList<Integer>());
+			}
+			for (int c = 0 ; c < members.length ; c++) {
+				if (members[c].length > 0) {
+					int first = size;
+					int last = -1;
+					for (int n : members[c]) {
+						first = Math.min(first, n);
+						last = Math.max(last, n);
+					}
+					starting.get(first).add(c);
+					ending.get(last).add(c);
+					lastOf[c] = last;
+				}
+			}
+			List<Integer> free = new ArrayList<>();
+			int slots = 0;
+			for (int n = 0 ; n < size ; n++) {
+				for (int c : starting.get(n)) {
+					slotOf[c] = free.isEmpty() ? slots++ : free.remove(free.size() - 1);
+				}
+				for (int c : ending.get(n)) {
+					free.add(slotOf[c]);
+				}
+			}
+			// how many of each number's cells come after cells[n]
+			int[][] after = new int[size][];
+			for (int n = 0 ; n < size ; n++) {
+				after[n] = new int[numbersOf[n].length];
+				for (int j = 0 ; j < numbersOf[n].length ; j++) {
+					for (int m : members[numbersOf[n][j]]) {
+						if (m > n) {
+							after[n][j]++;
+						}
+					}
+				}
+			}
+
+			// forward.get(n) holds the partial layouts of the first n cells
+			List<Map<State, double[]>> forward = new ArrayList<>();
+			double[] forwardScale = new double[size + 1];
+			Map<State, double[]> start = new HashMap<>();
+			State empty = new State(new byte[slots]);
+			start.put(empty, new double[] {1.0});
+			forward.add(start);
+			long work = 0;
+			for (int n = 0 ; n < size ; n++) {
+				Map<State, double[]> next = new HashMap<>();
+				for (Map.Entry<State, double[]> entry : forward.get(n).entrySet()) {
+					for (int value = 0 ; value <= 1 ; value++) {
+						State state = step(entry.getKey(), n, value, slotOf, after);
+						if (state != null) {
+							double[] counts = next.get(state);
+							if (counts == null) {
+								counts = new double[n + 2];
+								next.put(state, counts);
+							}
+							double[] from = entry.getValue();
+							for (int k = 0 ; k < from.length ; k++) {
+								counts[k + value] += from[k];
+							}
+						}
+					}
+				}
+				if (next.size() > MAX_STATES) {
+					return false;
+				}
+				work += (long)forward.get(n).size() * (n + 1) * (size - n);
+				if (work > MAX_WORK) {
+					return false;
+				}
+				forwardScale[n + 1] = forwardScale[n] + rescale(next);
+				forward.add(next);
+			}
+			double[] ends = forward.get(size).get(empty);
+			layouts = ends == null ? new double[size + 1] : Arrays.copyOf(ends, size + 1);
+			mineLayouts = new double[size][size + 1];
+
+			// going back, backward holds the ways to finish from cells[n] on, for each partial layout before it
+			Map<State, double[]> backward = new HashMap<>();
+			backward.put(empty, new double[] {1.0});
+			double backwardScale = 0.0;
+			for (int n = size - 1 ; n >= 0 ; n--) {
+				Map<State, double[]> before = new HashMap<>();
+				// what a partial layout to here and a finish after it with a mine on cells[n] are worth, 
+				// in the same units as layouts
+				double factor = Math.exp(forwardScale[n] + backwardScale - forwardScale[size]);
+				for (Map.Entry<State, double[]> entry : forward.get(n).entrySet()) {
+					double[] from = entry.getValue();
+					double[] counts = null;
+					for (int value = 0 ; value <= 1 ; value++) {
+						State state = step(entry.getKey(), n, value, slotOf, after);
+						double[] rest = state == null ? null : backward.get(state);
+						if (rest == null) {
+							continue;
+						}
+						if (counts == null) {
+							counts = new double[size - n + 1];
+						}
+						for (int k = 0 ; k < rest.length ; k++) {
+							counts[k + value] += rest[k];
+						}
+						if (value == 1) {
+							for (int a = 0 ; a < from.length ; a++) {
+								if (from[a] != 0) {
+									double weight = from[a] * factor;
+									for (int b = 0 ; b < rest.length ; b++) {
+										mineLayouts[n][a + b + 1] += weight * rest[b];
+									}
+								}
+							}
+						}
+					}
+					if (counts != null) {
+						before.put(entry.getKey(), counts);
+					}
+				}
+				backwardScale += rescale(before);
+				backward = before;
+			}
+			return true;
+		}
+
+		// the state after giving cells[n] the value, or null if that breaks a number
+		private State step(State state, int n, int value, int[] slotOf, int[][] after) {
+			byte[] placed = state.placed.clone();
+			for (int j = 0 ; j < numbersOf[n].length ; j++) {
+				int c = numbersOf[n][j];
+				int needed = numbers[c * 2 + 1];
+				int count = placed[slotOf[c]] + value;
+				if (count > needed || count + after[n][j] < needed) {
+					return null;
+				}
+				// a number that's done is cleared out, so its place can be used again
+				placed[slotOf[c]] = (byte)(after[n][j] == 0 ? 0 : count);
+			}
+			return new State(placed);
+		}
+
+		private void search(int n, int mines) {
+			if (n == cells.length) {
+				layouts[mines]++;
+				for (int m = 0 ; m < cells.length ; m++) {
+					if (isMine[m]) {
+						mineLayouts[m][mines]++;
+					}
+				}
+				return;
+			}
+			for (int value = 0 ; value <= 1 ; value++) {
+				if (fits(n, value)) {
+					for (int c : numbersOf[n]) {
+						placed[c] += value;
+						left[c]--;
+					}
+					isMine[n] = value == 1;
+					search(n + 1, mines + value);
+					for (int c : numbersOf[n]) {
+						placed[c] -= value;
+						left[c]++;
+					}
+				}
+			}
+			isMine[n] = false;
+		}
+
+		// whether every number around cells[n] can still be met with it set to value
+		private boolean fits(int n, int value) {
+			for (int c : numbersOf[n]) {
+				int needed = numbers[c * 2 + 1];
+				if (placed[c] + value > needed || placed[c] + value + left[c] - 1 < needed) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Arrays.hashCode(cells) + Arrays.hashCode(numbers);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Group)) {
+				return false;
+			}
+			Group group = (Group)other;
+			return Arrays.equals(cells, group.cells) && Arrays.equals(numbers, group.numbers);
+		}
+	}
+
+	/**
+	 * Divides every count down if the biggest is getting too big.
+	 *
+	 * @return the log of what they were divided by
+	 */
+	private static double rescale(Map<State, double[]> counts) {
+		double max = 0.0;
+		for (double[] values : counts.values()) {
+			for (double value : values) {
+				max = Math.max(max, value);
+			}
+		}
+		if (max < MAX_COUNT) {
+			return 0.0;
+		}
+		for (double[] values : counts.values()) {
+			for (int k = 0 ; k < values.length ; k++) {
+				values[k] /= max;
+			}
+		}
+		return Math.log(max);
+	}
+
+	/**
+	 * The mines given so far to each number partway through a sweep.
+	 */
+	private static class State {
+		private final byte[] placed;
+		private final int hash;
+
+		private State(byte[] placed) {
+			this.placed = placed;
+			this.hash = Arrays.hashCode(placed);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof State && Arrays.equals(placed, ((State)other).placed);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This loads a {@link RaceServer} with lots of bots at once over loopback, to see how many it can take.
+ * Each bot plays like the one in {@link Simulator}, on its own copy of the field laid out from the race's seed,
+ * and checks every change the server sends against what its copy says should have changed.
+ * It waits for the server to answer each move before making the next one,
+ * and the time that takes is the latency reported, which includes waiting for the tick.
+ */
+public class RaceClient {
+	// give up if nothing comes in for this long
+	private static final long TIMEOUT_MILLIS = 30000;
+
+	private final InetSocketAddress address;
+	private final int width;
+	private final int height;
+	private final int mines;
+
+	private int clients;
+	private int players;
+	private int games;
+
+	// results of the last run
+	private int finished;
+	private int wins;
+	private int mismatches;
+	private long moves;
+	private long messages;
+	private long bytes;
+	private long[] latencies;
+	private long runNanos;
+
+	public RaceClient(InetSocketAddress address, int width, int height, int mines) {
+		this.address = address;
+		this.width = width;
+		this.height = height;
+		this.mines = mines;
+		this.clients = 100;
+		this.players = 2;
+		this.games = 5;
+	}
+
+	public void setClients(int clients) {
+		this.clients = clients;
+	}
+
+	public void setPlayers(int players) {
+		this.players = players;
+	}
+
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	/**
+	 * Connects all the bots and plays until each has finished its games.
+	 */
+	public void run() throws IOException {
+		finished = 0;
+		wins = 0;
+		mismatches = 0;
+		moves = 0;
+		messages = 0;
+		bytes = 0;
+		latencies = new long[1024];
+		long start = System.nanoTime();
+		try (Selector selector = Selector.open()) {
+			List<Bot> bots = new ArrayList<>();
+			for (int i = 0 ; i < clients ; i++) {
+				SocketChannel channel = SocketChannel.open(address);
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				Bot bot = new Bot(channel);
+				channel.register(selector, SelectionKey.OP_READ, bot);
+				bots.add(bot);
+				bot.join();
+			}
+			int done = 0;
+			while (done < clients) {
+				if (selector.select(TIMEOUT_MILLIS) == 0) {
+					throw new IOException(String.format("Nothing from the server in %d ms", TIMEOUT_MILLIS));
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Bot bot = (Bot)key.attachment();
+					if (bot.read()) {
+						key.cancel();
+						bot.channel.close();
+						done++;
+					}
+				}
+			}
+		}
+		runNanos = System.nanoTime() - start;
+	}
+
+	private void addLatency(long nanos) {
+		int n = (int)moves;
+		if (n == latencies.length) {
+			latencies = Arrays.copyOf(latencies, n * 2);
+		}
+		latencies[n] = nanos;
+		moves++;
+	}
+
+	public String getReport() {
+		long[] sorted = Arrays.copyOf(latencies, (int)moves);
+		Arrays.sort(sorted);
+		double seconds = runNanos / 1e9;
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d X %d, %d mines: %d bots in races of %d%n", width, height, mines, clients, players));
+		sb.append(String.format("  games     %d (%d won) in %.1f s%n", finished, wins, seconds));
+		sb.append(String.format("  moves     %d (%.0f per second)%n", moves, moves / seconds));
+		if (sorted.length > 0) {
+			sb.append(String.format("  latency   p50 %.1f ms, p99 %.1f ms, max %.1f ms%n", percentile(sorted, 0.5) / 1e6,
+					percentile(sorted, 0.99) / 1e6, sorted[sorted.length - 1] / 1e6));
+		}
+		sb.append(String.format("  received  %d messages, %.1f bytes each%n", messages, messages == 0 ? 0.0 : (double)bytes / messages));
+		sb.append(String.format("  mismatches %d", mismatches));
+		return sb.toString();
+	}
+
+	private static long percentile(long[] sorted, double fraction) {
+		return sorted[Math.min(sorted.length - 1, (int)(fraction * sorted.length))];
+	}
+
+	private class Bot {
+		private final SocketChannel channel;
+		private ByteBuffer in;
+		private final ByteBuffer out;
+		private MineField field;
+		private Solver solver;
+		private Probabilities odds;
+		private int gamesLeft;
+		// when the move we're waiting to hear back about was sent, or 0
+		private long sentAt;
+
+		private Bot(SocketChannel channel) {
+			this.channel = channel;
+			this.in = ByteBuffer.allocate(4096);
+			this.out = ByteBuffer.allocate(64);
+			this.gamesLeft = games;
+		}
+
+		private void join() throws IOException {
+			out.clear();
+			out.putInt(0);
+			out.put(RaceServer.JOIN);
+			Replay.putVarint(out, width);
+			Replay.putVarint(out, height);
+			Replay.putVarint(out, mines);
+			Replay.putVarint(out, players);
+			send();
+		}
+
+		private void move(int cell) throws IOException {
+			out.clear();
+			out.putInt(0);
+			out.put(RaceServer.MOVE);
+			Replay.putVarint(out, cell << 2 | Replay.OPEN);
+			sentAt = System.nanoTime();
+			send();
+		}
+
+		// messages are tiny, so they go out whole
+		private void send() throws IOException {
+			out.putInt(0, out.position() - 4);
+			out.flip();
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+		}
+
+		/**
+		 * @return whether this bot is done
+		 */
+		private boolean read() throws IOException {
+			if (channel.read(in) < 0) {
+				throw new IOException("Server hung up");
+			}
+			in.flip();
+			boolean isDone = false;
+			while (!isDone && in.remaining() >= 4) {
+				int length = in.getInt(in.position());
+				if (in.remaining() < 4 + length) {
+					break;
+				}
+				in.getInt();
+				ByteBuffer message = in.slice();
+				message.limit(length);
+				in.position(in.position() + length);
+				messages++;
+				bytes += 4 + length;
+				isDone = handle(message);
+			}
+			in.compact();
+			if (in.position() == in.capacity()) {
+				// a message bigger than the buffer
+				in.flip();
+				in = ByteBuffer.allocate(in.capacity() * 2).put(in);
+			}
+			return isDone;
+		}
+
+		private boolean handle(ByteBuffer message) throws IOException {
+			byte type = message.get();
+			if (type == RaceServer.START) {
+				start(message);
+				return false;
+			} else if (type == RaceServer.TICK) {
+				return tick(message);
+			}
+			throw new IOException("Unknown message " + type);
+		}
+
+		private void start(ByteBuffer message) {
+			Replay.getVarint(message);
+			long seed = message.getLong();
+			int w = Replay.getVarint(message);
+			Replay.getVarint(message);
+			Replay.getVarint(message);
+			Replay.getVarint(message);
+			Replay.getVarint(message);
+			int first = Replay.getVarint(message);
+			if (field == null) {
+				field = new MineField(width, height, mines);
+				field.setSafeStart(MineField.SAFE_AREA);
+				solver = new Solver(field);
+				odds = new Probabilities(field, solver);
+			}
+			field.reset(seed);
+			field.clearChanges();
+			field.open(first % w, first / w);
+			sentAt = 0;
+		}
+
+		private boolean tick(ByteBuffer message) throws IOException {
+			Replay.getVarint(message);
+			int count = Replay.getVarint(message);
+			if (count == 0) {
+				// just news of the others
+				return false;
+			}
+			int[] cells = new int[field.getChangeCount()];
+			for (int n = 0 ; n < cells.length ; n++) {
+				cells[n] = field.getChangedY(n) * width + field.getChangedX(n);
+			}
+			Arrays.sort(cells);
+			boolean isMatch = count == cells.length;
+			int cell = 0;
+			for (int n = 0 ; n < count ; n++) {
+				cell += Replay.getVarint(message);
+				byte seen = message.get();
+				isMatch &= n < cells.length && cells[n] == cell
+						&& seen == RaceServer.seen(field, cell % width, cell / width);
+			}
+			if (!isMatch) {
+				mismatches++;
+			}
+			field.clearChanges();
+			if (sentAt != 0) {
+				addLatency(System.nanoTime() - sentAt);
+				sentAt = 0;
+			}
+			if (field.isWinner() || field.isLoser()) {
+				finished++;
+				if (field.isWinner()) {
+					wins++;
+				}
+				if (--gamesLeft == 0) {
+					return true;
+				}
+				join();
+				return false;
+			}
+			solver.solve();
+			int next = solver.nextSafeCell();
+			if (next < 0) {
+				odds.compute();
+				next = odds.getSafestCell();
+			}
+			field.open(next % width, next / width);
+			move(next);
+			return false;
+		}
+	}
+
+	/**
+	 * Arguments are bots, players per race, games per bot, then optionally width, height and mines,
+	 * then optionally the port of a server that's already running.
+	 * Without a port this starts a server of its own.
+	 */
+	public static void main(String[] args) throws IOException {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int players = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+		int games = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		Object[] config = MineField.CONFIGS[MineField.CONFIGS.length - 1];
+		int width = args.length > 5 ? Integer.parseInt(args[3]) : (int)config[1];
+		int height = args.length > 5 ? Integer.parseInt(args[4]) : (int)config[2];
+		int mines = args.length > 5 ? Integer.parseInt(args[5]) : (int)config[3];
+		if ((long)clients * games % players != 0) {
+			throw new IllegalArgumentException(String.format("%d bots playing %d games each can't fill races of %d", clients, games, players));
+		}
+		RaceServer server = null;
+		int port;
+		if (args.length > 6) {
+			port = Integer.parseInt(args[6]);
+		} else {
+			server = new RaceServer(0);
+			server.start();
+			port = server.getPort();
+		}
+		RaceClient client = new RaceClient(new InetSocketAddress("localhost", port), width, height, mines);
+		client.setClients(clients);
+		client.setPlayers(players);
+		client.setGames(games);
+		try {
+			client.run();
+			System.out.println(client.getReport());
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+}
@@ -0,0 +1,560 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * This hosts races: a few players each get a field laid out from the same seed,
+ * with the same cell in the middle opened for them, and each plays their own copy.
+ * One thread does everything, with a selector over non-blocking sockets,
+ * so one server can keep hundreds of races going at once.
+ * Moves are played as soon as they come in, but what they changed only goes out once a tick,
+ * in one message per player with each of their cells that changed since the last one
+ * and how far along everyone in the race is.
+ * <p>
+ * Every message is a four byte length, then a type byte, then the rest.
+ * Numbers are varints like in {@link Replay}, except for the seed, which is eight bytes.
+ * <pre>
+ *     JOIN  (to the server):   width, height, mines, players
+ *     MOVE  (to the server):   cell << 2 | kind, with the cell numbered y * width + x and the kinds from Replay
+ *     START (to the player):   race, seed, width, height, mines, players, which player they are, first cell
+ *     TICK  (to the player):   tick, changed cells, then for each one the gap from the last one and what it shows,
+ *                              then for each player in the race their open cells and status
+ * </pre>
+ * A player can join another race once theirs is over, or in place of one that hasn't started yet.
+ * Moves before the race starts are ignored.
+ */
+public class RaceServer {
+	public static final int DEFAULT_PORT = 4277;
+
+	// message types, one set for each way
+	static final byte JOIN = 1;
+	static final byte MOVE = 2;
+	static final byte START = 1;
+	static final byte TICK = 2;
+
+	// what a player sees on a cell, if it's not an open cell's number
+	static final byte SEEN_FLAG = 9;
+	static final byte SEEN_CLOSED = 10;
+	static final byte SEEN_MINE = 11;
+
+	static final byte PLAYING = 0;
+	static final byte WON = 1;
+	static final byte LOST = 2;
+
+	private static final int DEFAULT_TICK_MILLIS = 50;
+	// limits on what players can ask for
+	private static final int MAX_MESSAGE = 32;
+	private static final int MAX_PLAYERS = 16;
+	private static final int MAX_CELLS = 1 << 20;
+	// a player with this much still waiting to go out is dropped; a message on top of it always fits,
+	// so a tick of a whole MAX_CELLS board does too
+	private static final int MAX_BACKLOG = 4 << 20;
+
+	private final ServerSocketChannel server;
+	private final Selector selector;
+	private final SplittableRandom random;
+	private int tickMillis;
+
+	// races waiting for players, by width, height, mines and players
+	private final Map<List<Integer>, Race> waiting;
+	private final List<Race> running;
+	private final List<Client> clients;
+	private int races;
+	private int ticks;
+	// changed cells of one player, sorted for sending
+	private int[] changed;
+	private volatile boolean isRunning;
+
+	/**
+	 * @param port the port to listen on, or 0 for any free one
+	 */
+	public RaceServer(int port) throws IOException {
+		server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress(port));
+		server.configureBlocking(false);
+		selector = Selector.open();
+		server.register(selector, SelectionKey.OP_ACCEPT);
+		random = new SplittableRandom();
+		tickMillis = DEFAULT_TICK_MILLIS;
+		waiting = new HashMap<>();
+		running = new ArrayList<>();
+		clients = new ArrayList<>();
+		changed = new int[64];
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public void setTickMillis(int tickMillis) {
+		this.tickMillis = tickMillis;
+	}
+
+	/**
+	 * Runs the server on its own daemon thread.
+	 */
+	public void start() {
+		Thread thread = new Thread("Race server") {
+			@Override
+			public void run() {
+				try {
+					RaceServer.this.run();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops the server, from any thread.
+	 */
+	public void stop() {
+		isRunning = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Serves until stopped.
+	 */
+	public void run() throws IOException {
+		isRunning = true;
+		long nextTick = System.currentTimeMillis() + tickMillis;
+		try {
+			while (isRunning) {
+				selector.select(Math.max(1, nextTick - System.currentTimeMillis()));
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					Client client = (Client)key.attachment();
+					try {
+						if (key.isReadable()) {
+							read(client);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(client);
+						}
+					} catch (IOException e) {
+						drop(client);
+					}
+				}
+				long now = System.currentTimeMillis();
+				if (now >= nextTick) {
+					tick();
+					// don't try to catch up on ticks missed while busy
+					nextTick = Math.max(nextTick + tickMillis, now + 1);
+				}
+			}
+		} finally {
+			for (Client client : new ArrayList<>(clients)) {
+				drop(client);
+			}
+			selector.close();
+			server.close();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client(channel);
+		client.key = channel.register(selector, SelectionKey.OP_READ, client);
+		clients.add(client);
+	}
+
+	private void read(Client client) throws IOException {
+		if (client.channel.read(client.in) < 0) {
+			drop(client);
+			return;
+		}
+		ByteBuffer in = client.in;
+		in.flip();
+		try {
+			// stop if a message got them dropped, like a join that started a race they couldn't be sent
+			while (in.remaining() >= 4 && client.key.isValid()) {
+				int length = in.getInt(in.position());
+				if (length < 1 || length > MAX_MESSAGE) {
+					throw new IOException("Bad message length " + length);
+				}
+				if (in.remaining() < 4 + length) {
+					break;
+				}
+				in.getInt();
+				int end = in.position() + length;
+				ByteBuffer message = in.slice();
+				message.limit(length);
+				in.position(end);
+				handle(client, message);
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Message too short", e);
+		} finally {
+			in.compact();
+		}
+	}
+
+	private void handle(Client client, ByteBuffer message) throws IOException {
+		byte type = message.get();
+		switch (type) {
+		case JOIN:
+			join(client, Replay.getVarint(message), Replay.getVarint(message), Replay.getVarint(message),
+					Replay.getVarint(message));
+			break;
+		case MOVE:
+			move(client, Replay.getVarint(message));
+			break;
+		default:
+			throw new IOException("Unknown message " + type);
+		}
+	}
+
+	private void join(Client client, int width, int height, int mines, int players) throws IOException {
+		if (client.player != null) {
+			if (!client.player.race.isStarted) {
+				leaveWaiting(client.player);
+			} else if (client.player.status == PLAYING) {
+				throw new IOException("Already in a race");
+			}
+			// stop sending them the old race
+			client.player.client = null;
+			client.player = null;
+		}
+		if (width < 1 || height < 1 || (long)width * height > MAX_CELLS || mines < 0 || mines > width * height
+				|| players < 1 || players > MAX_PLAYERS) {
+			throw new IOException(String.format("Bad race %d X %d, %d mines, %d players", width, height, mines, players));
+		}
+		List<Integer> key = Arrays.asList(width, height, mines, players);
+		Race race = waiting.get(key);
+		if (race == null) {
+			race = new Race(width, height, mines, players);
+			waiting.put(key, race);
+		}
+		Player player = new Player(client, race);
+		race.players.add(player);
+		client.player = player;
+		if (race.players.size() == players) {
+			waiting.remove(key);
+			startRace(race);
+		}
+	}
+
+	// takes a player out of a race that's still waiting for players, and the race too if that was the last one
+	private void leaveWaiting(Player player) {
+		Race race = player.race;
+		race.players.remove(player);
+		if (race.players.isEmpty()) {
+			waiting.values().remove(race);
+		}
+	}
+
+	private void startRace(Race race) {
+		race.seed = random.nextLong();
+		race.isStarted = true;
+		int x = race.width / 2;
+		int y = race.height / 2;
+		for (int i = 0 ; i < race.players.size() ; i++) {
+			Player player = race.players.get(i);
+			// everyone starts from the same opening
+			player.start();
+			player.field.clearChanges();
+			player.field.open(x, y);
+			player.update();
+			try {
+				ByteBuffer out = reserve(player.client, 4 + 1 + 8 + 7 * 5);
+				int start = out.position();
+				out.putInt(0);
+				out.put(START);
+				Replay.putVarint(out, race.id);
+				out.putLong(race.seed);
+				Replay.putVarint(out, race.width);
+				Replay.putVarint(out, race.height);
+				Replay.putVarint(out, race.mines);
+				Replay.putVarint(out, race.size);
+				Replay.putVarint(out, i);
+				Replay.putVarint(out, y * race.width + x);
+				out.putInt(start, out.position() - start - 4);
+			} catch (IOException e) {
+				// their problem, not the problem of whoever's join started the race
+				drop(player.client);
+			}
+		}
+		race.isDirty = true;
+		running.add(race);
+	}
+
+	private void move(Client client, int move) throws IOException {
+		Player player = client.player;
+		if (player == null || !player.race.isStarted || player.status != PLAYING) {
+			// a move before the race, or one that crossed paths with the end of it
+			return;
+		}
+		MineField field = player.field;
+		int cell = move >>> 2;
+		if (cell >= field.getWidth() * field.getHeight()) {
+			throw new IOException("Bad cell " + cell);
+		}
+		int x = cell % field.getWidth();
+		int y = cell / field.getWidth();
+		switch (move & 3) {
+		case Replay.OPEN:
+			field.open(x, y);
+			break;
+		case Replay.FLAG:
+			if (!field.isOpen(x, y)) {
+				field.toggleFlag(x, y);
+			}
+			break;
+		case Replay.CHORD:
+			if (field.isOpen(x, y)) {
+				field.chord(x, y);
+			}
+			break;
+		default:
+			throw new IOException("Bad move " + move);
+		}
+		player.update();
+		player.race.isDirty = true;
+	}
+
+	/**
+	 * Sends everyone in every race that changed what changed, all at once.
+	 */
+	private void tick() {
+		ticks++;
+		for (int r = running.size() - 1 ; r >= 0 ; r--) {
+			Race race = running.get(r);
+			if (!race.isDirty) {
+				continue;
+			}
+			race.isDirty = false;
+			boolean isOver = true;
+			for (Player player : race.players) {
+				if (player.client != null) {
+					try {
+						sendTick(player);
+					} catch (IOException e) {
+						drop(player.client);
+					}
+				}
+				player.field.clearChanges();
+				isOver &= player.status != PLAYING;
+			}
+			if (isOver) {
+				running.remove(r);
+			}
+		}
+	}
+
+	private void sendTick(Player player) throws IOException {
+		MineField field = player.field;
+		Race race = player.race;
+		int width = field.getWidth();
+		int count = field.isAllChanged() ? width * field.getHeight() : field.getChangeCount();
+		if (changed.length < count) {
+			changed = new int[Math.max(count, changed.length * 2)];
+		}
+		for (int n = 0 ; n < count ; n++) {
+			changed[n] = field.isAllChanged() ? n : field.getChangedY(n) * width + field.getChangedX(n);
+		}
+		Arrays.sort(changed, 0, count);
+		ByteBuffer out = reserve(player.client, 4 + 1 + 5 + 5 + count * 6 + race.size * 6);
+		int start = out.position();
+		out.putInt(0);
+		out.put(TICK);
+		Replay.putVarint(out, ticks);
+		Replay.putVarint(out, count);
+		int last = 0;
+		for (int n = 0 ; n < count ; n++) {
+			int cell = changed[n];
+			Replay.putVarint(out, cell - last);
+			out.put(seen(field, cell % width, cell / width));
+			last = cell;
+		}
+		for (Player other : race.players) {
+			Replay.putVarint(out, other.opened);
+			out.put(other.status);
+		}
+		out.putInt(start, out.position() - start - 4);
+		write(player.client);
+	}
+
+	static byte seen(MineField field, int x, int y) {
+		if (field.isOpen(x, y)) {
+			return field.isMine(x, y) ? SEEN_MINE : (byte)field.minesAround(x, y);
+		}
+		return field.isFlag(x, y) ? SEEN_FLAG : SEEN_CLOSED;
+	}
+
+	// room for at least this many more bytes on the way out to the client
+	private ByteBuffer reserve(Client client, int bytes) throws IOException {
+		if (client.out.position() > MAX_BACKLOG) {
+			throw new IOException("Too far behind");
+		}
+		if (client.out.remaining() < bytes) {
+			int needed = client.out.position() + bytes;
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, client.out.capacity() * 2));
+			client.out.flip();
+			bigger.put(client.out);
+			client.out = bigger;
+		}
+		return client.out;
+	}
+
+	private void write(Client client) throws IOException {
+		client.out.flip();
+		client.channel.write(client.out);
+		client.out.compact();
+		int ops = client.out.position() > 0 ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+		if (client.key.interestOps() != ops) {
+			client.key.interestOps(ops);
+		}
+	}
+
+	private void drop(Client client) {
+		if (!clients.remove(client)) {
+			return;
+		}
+		client.key.cancel();
+		try {
+			client.channel.close();
+		} catch (IOException e) {
+			// it's gone either way
+		}
+		Player player = client.player;
+		if (player == null) {
+			return;
+		}
+		player.client = null;
+		Race race = player.race;
+		if (!race.isStarted) {
+			leaveWaiting(player);
+		} else if (player.status == PLAYING) {
+			// leaving counts as losing
+			player.status = LOST;
+			race.isDirty = true;
+		}
+	}
+
+	private class Race {
+		private final int id;
+		private final int width;
+		private final int height;
+		private final int mines;
+		private final int size;
+		private final List<Player> players;
+		private long seed;
+		private boolean isStarted;
+		// whether anyone's moved since the last tick
+		private boolean isDirty;
+
+		private Race(int width, int height, int mines, int size) {
+			this.id = races++;
+			this.width = width;
+			this.height = height;
+			this.mines = mines;
+			this.size = size;
+			this.players = new ArrayList<>();
+		}
+	}
+
+	private static class Player implements FieldListener {
+		private final Race race;
+		// null until the race starts, so players waiting for one don't hold a field each
+		private MineField field;
+		// null once they've gone
+		private Client client;
+		private int opened;
+		private byte status;
+
+		private Player(Client client, Race race) {
+			this.client = client;
+			this.race = race;
+		}
+
+		// lays out their copy of the field from the race's seed
+		private void start() {
+			field = new MineField(race.width, race.height, race.mines);
+			field.setSafeStart(MineField.SAFE_AREA);
+			field.addListener(this);
+			field.reset(race.seed);
+			status = PLAYING;
+		}
+
+		private void update() {
+			if (field.isLoser()) {
+				status = LOST;
+			} else if (field.isWinner()) {
+				status = WON;
+			}
+		}
+
+		@Override
+		public void fieldReset(MineField field) {
+			opened = 0;
+		}
+
+		@Override
+		public void cellOpened(MineField field, int x, int y) {
+			if (!field.isMine(x, y)) {
+				opened++;
+			}
+		}
+
+		@Override
+		public void cellFlagged(MineField field, int x, int y, boolean isFlag) {
+		}
+	}
+
+	private static class Client {
+		private final SocketChannel channel;
+		private final ByteBuffer in;
+		private ByteBuffer out;
+		private SelectionKey key;
+		// the race they're in, or last played in
+		private Player player;
+
+		private Client(SocketChannel channel) {
+			this.channel = channel;
+			this.in = ByteBuffer.allocate(4096);
+			this.out = ByteBuffer.allocate(4096);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		RaceServer server = new RaceServer(port);
+		if (args.length > 1) {
+			server.setTickMillis(Integer.parseInt(args[1]));
+		}
+		System.out.println("Serving races on port " + server.getPort());
+		server.run();
+	}
+}
@@ -0,0 +1,187 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * This is a recording of one game: the field's size, seed and first-click rules, then every move.
+ * The field can be laid out again from the seed, so the moves are all that's needed to play it back
+ * (see {@link ReplayEngine}).
+ * In a file, each move is two variable-length numbers: the milliseconds since the last move,
+ * and the cell and kind of move packed together, so most moves take three or four bytes.
+ */
+public class Replay {
+	// kinds of move
+	public static final int OPEN = 0;
+	public static final int FLAG = 1;
+	public static final int CHORD = 2;
+
+	// "MSRP"
+	private static final int MAGIC = 0x4D535250;
+	// 2 lays out the mines before the first click and moves the ones in its way
+	private static final int VERSION = 2;
+
+	private final int width;
+	private final int height;
+	private final int mines;
+	private final long seed;
+	private final int safeStart;
+	private final boolean isNoGuess;
+
+	// one entry per move, cells numbered y * width + x, times in milliseconds since the start
+	private int[] cells;
+	private byte[] kinds;
+	private int[] millis;
+	private int size;
+
+	public Replay(int width, int height, int mines, long seed, int safeStart, boolean isNoGuess) {
+		this.width = width;
+		this.height = height;
+		this.mines = mines;
+		this.seed = seed;
+		this.safeStart = safeStart;
+		this.isNoGuess = isNoGuess;
+		this.cells = new int[16];
+		this.kinds = new byte[16];
+		this.millis = new int[16];
+	}
+
+	/**
+	 * Starts a recording of a field that has just been reset.
+	 */
+	public Replay(MineField field, boolean isNoGuess) {
+		this(field.getWidth(), field.getHeight(), field.getMines(), field.getSeed(), field.getSafeStart(), isNoGuess);
+	}
+
+	public void add(int kind, int x, int y, int millis) {
+		if (size == cells.length) {
+			cells = Arrays.copyOf(cells, size * 2);
+			kinds = Arrays.copyOf(kinds, size * 2);
+			this.millis = Arrays.copyOf(this.millis, size * 2);
+		}
+		cells[size] = y * width + x;
+		kinds[size] = (byte)kind;
+		this.millis[size] = millis;
+		size++;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getMines() {
+		return mines;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public int getSafeStart() {
+		return safeStart;
+	}
+
+	public boolean isNoGuess() {
+		return isNoGuess;
+	}
+
+	public int getMoveCount() {
+		return size;
+	}
+
+	public int getKind(int move) {
+		return kinds[move];
+	}
+
+	public int getX(int move) {
+		return cells[move] % width;
+	}
+
+	public int getY(int move) {
+		return cells[move] / width;
+	}
+
+	public int getMillis(int move) {
+		return millis[move];
+	}
+
+	public ByteBuffer toBuffer() {
+		// header and the move count, then at most five bytes for each number
+		ByteBuffer buffer = ByteBuffer.allocate(4 * 5 + 8 + 2 + 5 + size * 10);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(width);
+		buffer.putInt(height);
+		buffer.putInt(mines);
+		buffer.putLong(seed);
+		buffer.put((byte)safeStart);
+		buffer.put((byte)(isNoGuess ? 1 : 0));
+		putVarint(buffer, size);
+		int last = 0;
+		for (int n = 0 ; n < size ; n++) {
+			putVarint(buffer, millis[n] - last);
+			putVarint(buffer, cells[n] << 2 | kinds[n]);
+			last = millis[n];
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * @throws IOException if the buffer doesn't hold a recording this version understands
+	 */
+	public static Replay read(ByteBuffer buffer) throws IOException {
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException("Not a replay");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("Replay version %d isn't supported", version));
+			}
+			Replay replay = new Replay(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.get(), buffer.get() != 0);
+			int count = getVarint(buffer);
+			int time = 0;
+			for (int n = 0 ; n < count ; n++) {
+				time += getVarint(buffer);
+				int packed = getVarint(buffer);
+				int cell = packed >>> 2;
+				replay.add(packed & 3, cell % replay.width, cell / replay.width, time);
+			}
+			return replay;
+		} catch (RuntimeException e) {
+			throw new IOException("Replay is cut short or damaged", e);
+		}
+	}
+
+	public static Replay load(File file) throws IOException {
+		return read(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+	}
+
+	// seven bits at a time, lowest first, with the top bit set on all but the last byte
+	static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte)value);
+	}
+
+	static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0 ; ; shift += 7) {
+			byte b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+	}
+}
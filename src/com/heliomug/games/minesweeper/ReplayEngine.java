@@ -0,0 +1,161 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This plays a {@link Replay} back on a field with no display.
+ * It can step forward one move at a time or jump to any move.
+ * Every SNAPSHOT_INTERVAL moves it keeps a copy of the field as it goes,
+ * so jumping back only has to replay from the nearest copy instead of from the start.
+ */
+public class ReplayEngine {
+	private static final int SNAPSHOT_INTERVAL = 64;
+
+	private final Replay replay;
+	private final MineField field;
+	// the moves played so far
+	private int position;
+
+	// snapshots.get(n) is the field after n * SNAPSHOT_INTERVAL moves
+	private final List<ByteBuffer> snapshots;
+	private final List<Long> snapshotSeeds;
+	private final List<Boolean> snapshotStarts;
+
+	public ReplayEngine(Replay replay) {
+		this.replay = replay;
+		this.field = new MineField(replay.getWidth(), replay.getHeight(), replay.getMines());
+		this.field.setSafeStart(replay.getSafeStart());
+		this.snapshots = new ArrayList<>();
+		this.snapshotSeeds = new ArrayList<>();
+		this.snapshotStarts = new ArrayList<>();
+		rewind();
+	}
+
+	public MineField getField() {
+		return field;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	private void rewind() {
+		field.reset(replay.getSeed());
+		position = 0;
+		if (snapshots.isEmpty()) {
+			takeSnapshot();
+		}
+	}
+
+	private void takeSnapshot() {
+		long words = ((long)field.getWidth() * field.getHeight() + 63) / 64;
+		ByteBuffer buffer = ByteBuffer.allocate((int)(3 * words * 8));
+		field.writeBits(buffer);
+		buffer.flip();
+		snapshots.add(buffer);
+		snapshotSeeds.add(field.getSeed());
+		snapshotStarts.add(field.isStarted());
+	}
+
+	/**
+	 * Plays the next move.
+	 *
+	 * @return whether there was one
+	 */
+	public boolean step() {
+		if (position >= replay.getMoveCount()) {
+			return false;
+		}
+		int x = replay.getX(position);
+		int y = replay.getY(position);
+		switch (replay.getKind(position)) {
+		case Replay.OPEN:
+			if (replay.isNoGuess() && !field.isStarted()) {
+				new NoGuessGenerator(field).generate(field.getSeed(), x, y);
+			}
+			field.open(x, y);
+			break;
+		case Replay.FLAG:
+			field.toggleFlag(x, y);
+			break;
+		case Replay.CHORD:
+			field.chord(x, y);
+			break;
+		}
+		position++;
+		field.clearChanges();
+		if (position % SNAPSHOT_INTERVAL == 0 && position / SNAPSHOT_INTERVAL == snapshots.size()) {
+			takeSnapshot();
+		}
+		return true;
+	}
+
+	/**
+	 * Sets the field up as it was after the given number of moves.
+	 */
+	public void seek(int move) {
+		move = Math.max(0, Math.min(move, replay.getMoveCount()));
+		int snapshot = Math.min(move / SNAPSHOT_INTERVAL, snapshots.size() - 1);
+		if (move < position || snapshot * SNAPSHOT_INTERVAL > position) {
+			ByteBuffer buffer = snapshots.get(snapshot).duplicate();
+			field.readBits(buffer, snapshotSeeds.get(snapshot), snapshotStarts.get(snapshot));
+			position = snapshot * SNAPSHOT_INTERVAL;
+		}
+		while (position < move) {
+			step();
+		}
+	}
+
+	/**
+	 * Plays every move that's left.
+	 *
+	 * @return whether the game was won
+	 */
+	public boolean playToEnd() {
+		while (step()) {
+		}
+		return field.isWinner();
+	}
+
+	/**
+	 * @return how long the game took, by the time of its last move, in seconds
+	 */
+	public double getSeconds() {
+		int moves = replay.getMoveCount();
+		return moves == 0 ? 0.0 : replay.getMillis(moves - 1) / 1000.0;
+	}
+
+	public static String getReplayPath() {
+		return System.getProperty("user.home") + File.separator + ".minereplays";
+	}
+
+	/**
+	 * Plays back every replay in the directory given (or the usual one) and reports which were wins.
+	 */
+	public static void main(String[] args) throws IOException {
+		File dir = new File(args.length > 0 ? args[0] : getReplayPath());
+		File[] files = dir.listFiles();
+		if (files == null) {
+			System.out.println("No replays in " + dir);
+			return;
+		}
+		int played = 0;
+		int wins = 0;
+		long start = System.nanoTime();
+		for (File file : files) {
+			if (file.getName().endsWith(".replay")) {
+				ReplayEngine engine = new ReplayEngine(Replay.load(file));
+				boolean isWin = engine.playToEnd();
+				played++;
+				wins += isWin ? 1 : 0;
+				System.out.println(String.format("%s: %s in %.02f seconds", file.getName(), isWin ? "won" : "lost", engine.getSeconds()));
+			}
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println(String.format("%d replays, %d wins, %.0f replays per second", played, wins, played / seconds));
+	}
+}
@@ -0,0 +1,130 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This is a game in progress written to a file, so it can be picked up later.
+ * The file is a short header followed by three bitmaps of the field (mines, open cells and flags),
+ * so it takes a little under half a byte per cell.  It's read and written through a memory-mapped buffer.
+ */
+public class SavedGame {
+	// "MSWP"
+	private static final int MAGIC = 0x4D535750;
+	private static final int VERSION = 1;
+	// magic, version, width, height, mines, seed, started, safe start, difficulty, seconds
+	private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 4 + 8 + 1 + 4 + 4 + 8;
+
+	private final MineField field;
+	private final int difficulty;
+	private final double seconds;
+
+	public SavedGame(MineField field, int difficulty, double seconds) {
+		this.field = field;
+		this.difficulty = difficulty;
+		this.seconds = seconds;
+	}
+
+	public MineField getField() {
+		return field;
+	}
+
+	public int getDifficulty() {
+		return difficulty;
+	}
+
+	/**
+	 * @return how long the game had been going when it was saved
+	 */
+	public double getSeconds() {
+		return seconds;
+	}
+
+	public static String getSavePath() {
+		return System.getProperty("user.home") + File.separator + ".minesave";
+	}
+
+	private static long fileSize(int width, int height) {
+		long words = ((long)width * height + 63) / 64;
+		return HEADER_BYTES + 3 * words * 8;
+	}
+
+	/**
+	 * Copies the game into memory, exactly as it goes in the file.  
+	 * This is quick, so it can be done while the field is in use, and the slow part, 
+	 * writing it out with {@link #write(ByteBuffer, File)}, can happen on another thread.  
+	 */
+	public ByteBuffer toBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocate((int)fileSize(field.getWidth(), field.getHeight()));
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(field.getWidth());
+		buffer.putInt(field.getHeight());
+		buffer.putInt(field.getMines());
+		buffer.putLong(field.getSeed());
+		buffer.put((byte)(field.isStarted() ? 1 : 0));
+		buffer.putInt(field.getSafeStart());
+		buffer.putInt(difficulty);
+		buffer.putDouble(seconds);
+		field.writeBits(buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	public static void write(ByteBuffer saved, File file) throws IOException {
+		long start = Metrics.start();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, saved.remaining());
+			buffer.put(saved.duplicate());
+			buffer.force();
+		} finally {
+			Metrics.SAVE_IO.stop(start);
+		}
+	}
+
+	/**
+	 * Reads a saved game into a new field.
+	 *
+	 * @throws IOException if the file can't be read or isn't a saved game this version understands
+	 */
+	public static SavedGame load(File file) throws IOException {
+		long start = Metrics.start();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_BYTES) {
+				throw new IOException(file + " is too short to be a saved game");
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(file + " isn't a saved game");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION) {
+				throw new IOException(String.format("%s is saved game version %d, which isn't supported", file, version));
+			}
+			int width = buffer.getInt();
+			int height = buffer.getInt();
+			int mines = buffer.getInt();
+			long seed = buffer.getLong();
+			boolean isStarted = buffer.get() != 0;
+			int safeStart = buffer.getInt();
+			int difficulty = buffer.getInt();
+			double seconds = buffer.getDouble();
+			if (width <= 0 || height <= 0 || channel.size() != fileSize(width, height)) {
+				throw new IOException(file + " has the wrong size for a " + width + " X " + height + " field");
+			}
+			MineField field = new MineField(width, height, mines);
+			field.setSafeStart(safeStart);
+			field.readBits(buffer, seed, isStarted);
+			return new SavedGame(field, difficulty, seconds);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(file + " doesn't hold a valid field", e);
+		} finally {
+			Metrics.SAVE_IO.stop(start);
+		}
+	}
+}
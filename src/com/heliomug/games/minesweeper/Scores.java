@@ -0,0 +1,371 @@
+package com.heliomug.games.minesweeper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * This is the history of every finished game, for every size of field, kept in a file.
+ * The file is a short header followed by fixed-size records, one per game, each with a checksum.
+ * Games are only ever appended, and every one is kept, so the file is never rewritten.
+ * A crash can at worst leave part of a record at the end, which is cut off when the file is next read.
+ * Records are all the same size, so one that doesn't check out is skipped and left where it is,
+ * and the ones after it are still read.
+ * A file that can't be read, or doesn't start with the right header, isn't ours to write to,
+ * so it's moved aside to a <code>.bad</code> file and a new one is started.
+ * All the file work happens on the {@link Persistence} thread.  Games added close together
+ * are written out in one go, and reading the history has to be done from a task
+ * handed to {@link #whenReady(Runnable)}, so it only ever happens on that thread.
+ */
+class Scores {
+	// "MSCL"
+	private static final int MAGIC = 0x4D53434C;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 4 + 4;
+	// width, height, mines, seconds, win, date, then the checksum of all that
+	private static final int DATA_BYTES = 4 + 4 + 4 + 8 + 1 + 8;
+	private static final int RECORD_BYTES = DATA_BYTES + 4;
+
+	/**
+	 * One finished game.
+	 */
+	static class Game {
+		final int width;
+		final int height;
+		final int mines;
+		final double seconds;
+		final boolean isWin;
+		// milliseconds since 1970
+		final long date;
+
+		Game(int width, int height, int mines, double seconds, boolean isWin, long date) {
+			this.width = width;
+			this.height = height;
+			this.mines = mines;
+			this.seconds = seconds;
+			this.isWin = isWin;
+			this.date = date;
+		}
+
+		long config() {
+			return Scores.config(width, height, mines);
+		}
+	}
+
+	private final File file;
+	private final Persistence io;
+	// every game read or added, oldest first; only touched on the persistence thread
+	private final List<Game> games;
+	// false if the file couldn't be read or moved aside, so writing it could lose games
+	private boolean isWritable;
+
+	// games added but not written yet, and what to tell about each one, guarded by pending
+	private final List<Game> pending;
+	private final List<Consumer<Boolean>> pendingDone;
+	private boolean isWriteQueued;
+
+	public Scores(Persistence io) {
+		this(new File(getScoresPath()), io);
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				if (games.isEmpty()) {
+					importOldScores(new File(getOldScoresPath()));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Starts reading the file in the background; this doesn't wait for it.
+	 */
+	public Scores(File file, Persistence io) {
+		this.file = file;
+		this.io = io;
+		this.games = new ArrayList<>();
+		this.pending = new ArrayList<>();
+		this.pendingDone = new ArrayList<>();
+		this.isWritable = true;
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				loadScores();
+			}
+		});
+	}
+
+	/**
+	 * Runs the task on the persistence thread once the games added so far are in,
+	 * so it can read the history.
+	 */
+	public void whenReady(Runnable task) {
+		io.submit(task);
+	}
+
+	public static String getScoresPath() {
+		return System.getProperty("user.home") + File.separator + ".minescores.log";
+	}
+
+	// where the best times used to be kept, one serialized double for each built-in difficulty
+	private static String getOldScoresPath() {
+		return System.getProperty("user.home") + File.separator + ".minescores";
+	}
+
+	// sizes of field packed into one number, for grouping games
+	private static long config(int width, int height, int mines) {
+		return ((long)width << 42) | ((long)height << 21) | mines;
+	}
+
+	/**
+	 * @return the best winning time for the size of field, or infinity if it's never been won
+	 * Only call this from a whenReady() task.
+	 */
+	public double getTopScore(int width, int height, int mines) {
+		long config = config(width, height, mines);
+		double best = Double.POSITIVE_INFINITY;
+		for (Game game : games) {
+			if (game.isWin && game.config() == config) {
+				best = Math.min(best, game.seconds);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return every game on the size of field, oldest first
+	 * Only call this from a whenReady() task.
+	 */
+	public List<Game> getGames(int width, int height, int mines) {
+		long config = config(width, height, mines);
+		List<Game> found = new ArrayList<>();
+		for (Game game : games) {
+			if (game.config() == config) {
+				found.add(game);
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return the sizes of field that have been played, as {width, height, mines}, in the order they were first played
+	 * Only call this from a whenReady() task.
+	 */
+	public List<int[]> getConfigs() {
+		Map<Long, int[]> configs = new LinkedHashMap<>();
+		for (Game game : games) {
+			if (!configs.containsKey(game.config())) {
+				configs.put(game.config(), new int[] {game.width, game.height, game.mines});
+			}
+		}
+		return new ArrayList<>(configs.values());
+	}
+
+	/**
+	 * Records a finished game in the background.
+	 *
+	 * @param done if not null, this gets told on the persistence thread
+	 *        whether the game is a win with a new best time for its size of field
+	 */
+	public void addGame(int width, int height, int mines, double seconds, boolean isWin, Consumer<Boolean> done) {
+		synchronized (pending) {
+			pending.add(new Game(width, height, mines, seconds, isWin, System.currentTimeMillis()));
+			pendingDone.add(done);
+			if (isWriteQueued) {
+				return;
+			}
+			isWriteQueued = true;
+		}
+		io.submit(new Runnable() {
+			@Override
+			public void run() {
+				writePending();
+			}
+		});
+	}
+
+	// writes out everything added since the last time, in one go
+	private void writePending() {
+		long start = Metrics.start();
+		List<Game> added;
+		List<Consumer<Boolean>> done;
+		synchronized (pending) {
+			added = new ArrayList<>(pending);
+			done = new ArrayList<>(pendingDone);
+			pending.clear();
+			pendingDone.clear();
+			isWriteQueued = false;
+		}
+		boolean[] isTopScore = new boolean[added.size()];
+		for (int n = 0 ; n < added.size() ; n++) {
+			Game game = added.get(n);
+			isTopScore[n] = game.isWin && game.seconds < getTopScore(game.width, game.height, game.mines);
+			games.add(game);
+		}
+		if (isWritable) {
+			append(added);
+		}
+		Metrics.SCORE_IO.stop(start);
+		for (int n = 0 ; n < done.size() ; n++) {
+			if (done.get(n) != null) {
+				done.get(n).accept(isTopScore[n]);
+			}
+		}
+	}
+
+	private void loadScores() {
+		long start = Metrics.start();
+		try {
+			readScores();
+		} finally {
+			Metrics.SCORE_IO.stop(start);
+		}
+	}
+
+	private void readScores() {
+		games.clear();
+		if (!file.exists()) {
+			return;
+		}
+		ByteBuffer buffer;
+		try {
+			buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+		} catch (IOException e) {
+			e.printStackTrace();
+			moveAside();
+			return;
+		}
+		if (buffer.remaining() == 0) {
+			// created but never written; the first append puts the header in
+			return;
+		}
+		if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			moveAside();
+			return;
+		}
+		int skipped = 0;
+		while (buffer.remaining() >= RECORD_BYTES) {
+			Game game = readGame(buffer);
+			if (game == null) {
+				skipped++;
+			} else {
+				games.add(game);
+			}
+		}
+		if (skipped > 0) {
+			System.err.println("Skipped " + skipped + " damaged records in " + file);
+		}
+		if (buffer.remaining() > 0) {
+			// part of a record from a write that didn't finish; cut it off, so new games line up after the last whole one
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				channel.truncate(buffer.position());
+				channel.force(false);
+			} catch (IOException e) {
+				e.printStackTrace();
+				isWritable = false;
+			}
+		}
+	}
+
+	/**
+	 * Renames the file to the first free <code>.bad</code> name, so a new one can be started
+	 * without losing whatever was in it.  If that doesn't work, nothing gets written this run.
+	 */
+	private void moveAside() {
+		File bad = new File(file.getPath() + ".bad");
+		for (int n = 2 ; bad.exists() ; n++) {
+			bad = new File(file.getPath() + ".bad" + n);
+		}
+		try {
+			Files.move(file.toPath(), bad.toPath());
+			System.err.println("Couldn't read " + file + ", so it's been moved to " + bad);
+		} catch (IOException e) {
+			e.printStackTrace();
+			isWritable = false;
+		}
+	}
+
+	/**
+	 * Brings in the best times from the old scores file, if there is one.
+	 */
+	private void importOldScores(File oldFile) {
+		if (!oldFile.exists()) {
+			return;
+		}
+		try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(oldFile))) {
+			double[] old = (double[])ois.readObject();
+			for (int i = 0 ; i < old.length && i < MineField.CONFIGS.length ; i++) {
+				if (!Double.isInfinite(old[i])) {
+					Object[] config = MineField.CONFIGS[i];
+					games.add(new Game((int)config[1], (int)config[2], (int)config[3], old[i], true, oldFile.lastModified()));
+				}
+			}
+		} catch (IOException | ClassNotFoundException | ClassCastException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (isWritable) {
+			append(games);
+		}
+	}
+
+	private static void writeGame(ByteBuffer buffer, Game game) {
+		int start = buffer.position();
+		buffer.putInt(game.width);
+		buffer.putInt(game.height);
+		buffer.putInt(game.mines);
+		buffer.putDouble(game.seconds);
+		buffer.put((byte)(game.isWin ? 1 : 0));
+		buffer.putLong(game.date);
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), start, DATA_BYTES);
+		buffer.putInt((int)crc.getValue());
+	}
+
+	/**
+	 * Reads a whole record, whether or not it checks out.
+	 *
+	 * @return the game, or null if its checksum is wrong
+	 */
+	private static Game readGame(ByteBuffer buffer) {
+		int start = buffer.position();
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), start, DATA_BYTES);
+		Game game = new Game(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getDouble(), buffer.get() != 0, buffer.getLong());
+		if (buffer.getInt() != (int)crc.getValue()) {
+			return null;
+		}
+		return game;
+	}
+
+	private void append(List<Game> added) {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + added.size() * RECORD_BYTES);
+			if (channel.size() == 0) {
+				buffer.putInt(MAGIC);
+				buffer.putInt(VERSION);
+			}
+			for (Game game : added) {
+				writeGame(buffer, game);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
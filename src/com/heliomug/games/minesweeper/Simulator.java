@@ -0,0 +1,218 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This plays lots of games with a bot and no display, to see how hard a setting is.
+ * The bot opens the middle cell first, then opens whatever the solver proves safe,
+ * and when it's stuck it guesses the cell least likely to be a mine.
+ * Game n of a run is always laid out from seed + n, so runs can be repeated.
+ * Each thread keeps one field, solver and odds table and reuses them for every game it plays.
+ */
+public class Simulator {
+	private final int width;
+	private final int height;
+	private final int mines;
+
+	private int games;
+	private int threads;
+	private long seed;
+	private int safeStart;
+
+	// results of the last run
+	private int wins;
+	private long guesses;
+	private long cellsOpened;
+	private long[] gameNanos;
+	private long runNanos;
+
+	public Simulator(int width, int height, int mines) {
+		this.width = width;
+		this.height = height;
+		this.mines = mines;
+		this.games = 1000;
+		this.threads = Runtime.getRuntime().availableProcessors();
+		this.seed = 0;
+		this.safeStart = MineField.SAFE_CELL;
+	}
+
+	public void setGames(int games) {
+		this.games = games;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void setSafeStart(int safeStart) {
+		this.safeStart = safeStart;
+	}
+
+	/**
+	 * Plays all the games, spread over the threads, and keeps the results.
+	 */
+	public void run() throws InterruptedException {
+		final AtomicInteger next = new AtomicInteger();
+		gameNanos = new long[games];
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		try {
+			List<Future<Player>> futures = new ArrayList<>();
+			for (int i = 0 ; i < threads ; i++) {
+				futures.add(pool.submit(new Callable<Player>() {
+					@Override
+					public Player call() {
+						Player player = new Player();
+						int n;
+						while ((n = next.getAndIncrement()) < games) {
+							long gameStart = System.nanoTime();
+							player.play(seed + n);
+							gameNanos[n] = System.nanoTime() - gameStart;
+						}
+						return player;
+					}
+				}));
+			}
+			wins = 0;
+			guesses = 0;
+			cellsOpened = 0;
+			for (Future<Player> future : futures) {
+				Player player = future.get();
+				wins += player.wins;
+				guesses += player.guesses;
+				cellsOpened += player.cellsOpened;
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		runNanos = System.nanoTime() - start;
+		Arrays.sort(gameNanos);
+	}
+
+	public double getWinRate() {
+		return games == 0 ? 0.0 : (double)wins / games;
+	}
+
+	public double getGuessesPerGame() {
+		return games == 0 ? 0.0 : (double)guesses / games;
+	}
+
+	public double getCellsPerSecond() {
+		return cellsOpened / (runNanos / 1e9);
+	}
+
+	/**
+	 * @return how long the game at the given fraction of the way from fastest to slowest took, in milliseconds
+	 */
+	public double getPercentileMillis(double fraction) {
+		if (gameNanos.length == 0) {
+			return 0.0;
+		}
+		int n = Math.min(gameNanos.length - 1, (int)Math.ceil(fraction * gameNanos.length) - 1);
+		return gameNanos[Math.max(n, 0)] / 1e6;
+	}
+
+	public String getReport() {
+		return String.format("%d X %d, %d mines: %d games on %d threads in %.2f s%n"
+				+ "  win rate %.2f%%, %.3f guesses per game, %.0f cells opened per second%n"
+				+ "  ms per game: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f",
+				width, height, mines, games, threads, runNanos / 1e9,
+				100 * getWinRate(), getGuessesPerGame(), getCellsPerSecond(),
+				getPercentileMillis(0.5), getPercentileMillis(0.9), getPercentileMillis(0.99), getPercentileMillis(1.0));
+	}
+
+	/**
+	 * One bot, with its own field to play on.
+	 */
+	private class Player implements FieldListener {
+		private final MineField field;
+		private final Solver solver;
+		private final Probabilities odds;
+
+		private int wins;
+		private long guesses;
+		private long cellsOpened;
+
+		public Player() {
+			field = new MineField(width, height, mines);
+			field.setSafeStart(safeStart);
+			field.addListener(this);
+			solver = new Solver(field);
+			odds = new Probabilities(field, solver);
+		}
+
+		public void play(long seed) {
+			field.reset(seed);
+			field.open(width / 2, height / 2);
+			while (!field.isWinner() && !field.isLoser()) {
+				solver.solve();
+				int cell = solver.nextSafeCell();
+				if (cell < 0) {
+					odds.compute();
+					cell = odds.getSafestCell();
+					if (cell < 0) {
+						break;
+					}
+					guesses++;
+				}
+				field.open(cell % width, cell / width);
+			}
+			if (field.isWinner()) {
+				wins++;
+			}
+		}
+
+		@Override
+		public void fieldReset(MineField field) {
+		}
+
+		@Override
+		public void cellOpened(MineField field, int x, int y) {
+			cellsOpened++;
+		}
+
+		@Override
+		public void cellFlagged(MineField field, int x, int y, boolean isFlag) {
+		}
+	}
+
+	/**
+	 * Arguments are the number of games per setting, the number of threads and the first seed,
+	 * then optionally a width, height and number of mines.  Without a size, every built-in setting is played.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 0;
+		List<int[]> sizes = new ArrayList<>();
+		if (args.length > 5) {
+			sizes.add(new int[] {Integer.parseInt(args[3]), Integer.parseInt(args[4]), Integer.parseInt(args[5])});
+		} else {
+			for (Object[] config : MineField.CONFIGS) {
+				sizes.add(new int[] {(int)config[1], (int)config[2], (int)config[3]});
+			}
+		}
+		for (int[] size : sizes) {
+			Simulator simulator = new Simulator(size[0], size[1], size[2]);
+			simulator.setGames(games);
+			simulator.setThreads(threads);
+			simulator.setSeed(seed);
+			simulator.run();
+			System.out.println(simulator.getReport());
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package com.heliomug.games.minesweeper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This works out which hidden cells must be safe and which must be mines from what's showing
+ * on a minefield.  It never looks at where the mines actually are.
+ * It follows the field as a listener and only re-checks the numbers next to cells that changed,
+ * so it's cheap enough to run after every move.
+ * Cells are numbered y * width + x.
+ */
+public class Solver implements FieldListener {
+	// bits of the per-cell state byte
+	private static final byte SAFE = 1;
+	private static final byte MINE = 2;
+	// set while an open cell is waiting in the queue to be checked
+	private static final byte QUEUED = 4;
+	// scratch mark for walking the frontier
+	private static final byte VISITED = 8;
+
+	private final MineField field;
+	private final int width;
+	private final int height;
+
+	private final byte[] state;
+	// circular queue of open cells whose numbers need checking
+	private final int[] queue;
+	private int queueHead;
+	private int queueSize;
+	// stack of cells known to be safe that might not be open yet
+	private final int[] safeCells;
+	private int safeCount;
+	// scratch list for walking the frontier
+	private final int[] members;
+
+	private int knownMines;
+	private int unknownCells;
+
+	// scratch space for comparing two numbers' hidden neighbours
+	private final int[] aCells = new int[8];
+	private final int[] bCells = new int[8];
+	private final int[] onlyA = new int[8];
+	private final int[] onlyB = new int[8];
+
+	public Solver(MineField field) {
+		this.field = field;
+		this.width = field.getWidth();
+		this.height = field.getHeight();
+		this.state = new byte[width * height];
+		this.queue = new int[width * height];
+		this.safeCells = new int[width * height];
+		this.members = new int[width * height];
+		field.addListener(this);
+		resync();
+	}
+
+	/**
+	 * Stops following the field.
+	 */
+	public void detach() {
+		field.removeListener(this);
+	}
+
+	/**
+	 * Starts following the field again after detach().
+	 */
+	public void attach() {
+		field.addListener(this);
+		resync();
+	}
+
+	/**
+	 * Forgets everything and starts over from whatever is open on the field now.
+	 */
+	public void resync() {
+		Arrays.fill(state, (byte)0);
+		queueHead = 0;
+		queueSize = 0;
+		safeCount = 0;
+		knownMines = 0;
+		unknownCells = state.length;
+		for (int y = 0 ; y < height ; y++) {
+			for (int x = 0 ; x < width ; x++) {
+				if (field.isOpen(x, y)) {
+					cellOpened(field, x, y);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void fieldReset(MineField field) {
+		resync();
+	}
+
+	@Override
+	public void cellOpened(MineField field, int x, int y) {
+		int cell = y * width + x;
+		learn(cell, SAFE);
+		enqueue(cell);
+	}
+
+	@Override
+	public void cellFlagged(MineField field, int x, int y, boolean isFlag) {
+		// flags are the player's guesses, so they don't count as knowledge
+	}
+
+	public boolean isKnownSafe(int x, int y) {
+		return (state[y * width + x] & SAFE) != 0;
+	}
+
+	public boolean isKnownMine(int x, int y) {
+		return (state[y * width + x] & MINE) != 0;
+	}
+
+	boolean isUnknown(int cell) {
+		return (state[cell] & (SAFE | MINE)) == 0;
+	}
+
+	public int getKnownMines() {
+		return knownMines;
+	}
+
+	/**
+	 * @return the number of cells that haven't been opened or worked out
+	 */
+	public int getUnknownCount() {
+		return unknownCells;
+	}
+
+	/**
+	 * @return a cell known to be safe that isn't open yet, or -1 if there isn't one
+	 */
+	public int nextSafeCell() {
+		while (safeCount > 0) {
+			int cell = safeCells[--safeCount];
+			if (!field.isOpen(cell % width, cell / width)) {
+				return cell;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Checks numbers until nothing more can be worked out.
+	 * Only the numbers next to cells that changed since the last call get looked at.
+	 */
+	public void solve() {
+		if (field.isLoser()) {
+			return;
+		}
+		while (queueSize > 0) {
+			int cell = queue[queueHead];
+			queueHead = (queueHead + 1) % queue.length;
+			queueSize--;
+			state[cell] &= ~QUEUED;
+			check(cell);
+		}
+		// once the mine count is used up, or exactly fills what's left, everything else follows
+		int minesLeft = field.getMines() - knownMines;
+		if (unknownCells > 0 && (minesLeft == 0 || minesLeft == unknownCells)) {
+			byte bit = minesLeft == 0 ? SAFE : MINE;
+			for (int cell = 0 ; cell < state.length ; cell++) {
+				if (isUnknown(cell)) {
+					learn(cell, bit);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Splits the frontier, the unknown cells next to an open number,
+	 * into groups that don't share any numbers, so each one can be worked on by itself.
+	 */
+	public List<int[]> getFrontierComponents() {
+		List<int[]> components = new ArrayList<>();
+		for (int cell = 0 ; cell < state.length ; cell++) {
+			if (isUnknown(cell) && (state[cell] & VISITED) == 0 && isFrontier(cell)) {
+				int size = 0;
+				members[size++] = cell;
+				state[cell] |= VISITED;
+				for (int n = 0 ; n < size ; n++) {
+					int cx = members[n] % width;
+					int cy = members[n] / width;
+					// anything sharing a number with this cell is in the same group
+					for (int i = cx - 2 ; i <= cx + 2 ; i++) {
+						for (int j = cy - 2 ; j <= cy + 2 ; j++) {
+							if (field.inBounds(i, j)) {
+								int other = j * width + i;
+								if (isUnknown(other) && (state[other] & VISITED) == 0 && sharesNumber(cx, cy, i, j)) {
+									state[other] |= VISITED;
+									members[size++] = other;
+								}
+							}
+						}
+					}
+				}
+				components.add(Arrays.copyOf(members, size));
+			}
+		}
+		for (int[] component : components) {
+			for (int cell : component) {
+				state[cell] &= ~VISITED;
+			}
+		}
+		return components;
+	}
+
+	boolean isFrontier(int cell) {
+		int cx = cell % width;
+		int cy = cell / width;
+		for (int i = cx - 1 ; i <= cx + 1 ; i++) {
+			for (int j = cy - 1 ; j <= cy + 1 ; j++) {
+				if (field.inBounds(i, j) && field.isOpen(i, j)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// whether some open cell is next to both (ax, ay) and (bx, by)
+	private boolean sharesNumber(int ax, int ay, int bx, int by) {
+		for (int i = Math.max(ax, bx) - 1 ; i <= Math.min(ax, bx) + 1 ; i++) {
+			for (int j = Math.max(ay, by) - 1 ; j <= Math.min(ay, by) + 1 ; j++) {
+				if (field.inBounds(i, j) && field.isOpen(i, j)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	private void enqueue(int cell) {
+		if ((state[cell] & QUEUED) == 0) {
+			state[cell] |= QUEUED;
+			queue[(queueHead + queueSize) % queue.length] = cell;
+			queueSize++;
+		}
+	}
+
+	private void learn(int cell, byte bit) {
+		if (!isUnknown(cell)) {
+			return;
+		}
+		state[cell] |= bit;
+		unknownCells--;
+		int cx = cell % width;
+		int cy = cell / width;
+		if (bit == MINE) {
+			knownMines++;
+		} else if (!field.isOpen(cx, cy)) {
+			safeCells[safeCount++] = cell;
+		}
+		// the numbers around this cell have one less unknown now
+		for (int i = cx - 1 ; i <= cx + 1 ; i++) {
+			for (int j = cy - 1 ; j <= cy + 1 ; j++) {
+				if (field.inBounds(i, j) && field.isOpen(i, j)) {
+					enqueue(j * width + i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills <code>unknowns</code> with the unknown cells around the open cell.
+	 *
+	 * @return the number of mines among them, in the high bits, and how many of them there are, in the low byte
+	 */
+	private int gather(int cell, int[] unknowns) {
+		int cx = cell % width;
+		int cy = cell / width;
+		int mines = field.minesAround(cx, cy);
+		int size = 0;
+		for (int i = cx - 1 ; i <= cx + 1 ; i++) {
+			for (int j = cy - 1 ; j <= cy + 1 ; j++) {
+				if (field.inBounds(i, j)) {
+					int other = j * width + i;
+					if ((state[other] & MINE) != 0) {
+						mines--;
+					} else if (isUnknown(other)) {
+						unknowns[size++] = other;
+					}
+				}
+			}
+		}
+		return (mines << 8) | size;
+	}
+
+	private void check(int cell) {
+		int a = gather(cell, aCells);
+		int aSize = a & 0xff;
+		int aMines = a >> 8;
+		if (aSize == 0) {
+			return;
+		}
+		// single-cell rule: all of the unknowns are safe, or all of them are mines
+		if (aMines == 0 || aMines == aSize) {
+			byte bit = aMines == 0 ? SAFE : MINE;
+			for (int n = 0 ; n < aSize ; n++) {
+				learn(aCells[n], bit);
+			}
+			return;
+		}
+		// pair rule against every other number close enough to share unknowns
+		int cx = cell % width;
+		int cy = cell / width;
+		for (int i = cx - 2 ; i <= cx + 2 ; i++) {
+			for (int j = cy - 2 ; j <= cy + 2 ; j++) {
+				int other = j * width + i;
+				if (other != cell && field.inBounds(i, j) && field.isOpen(i, j) && checkPair(aCells, aSize, aMines, other)) {
+					// something was learned, so look at this cell again with fresh unknowns
+					enqueue(cell);
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * With mines split between the cells only A sees, the cells both see,
+	 * and the cells only B sees, if B needs so many more mines than A
+	 * that every cell only B sees must be a mine, then none of the cells only A sees can be.
+	 * Same the other way around.
+	 *
+	 * @return whether anything was learned
+	 */
+	private boolean checkPair(int[] aCells, int aSize, int aMines, int bCell) {
+		int b = gather(bCell, bCells);
+		int bSize = b & 0xff;
+		int bMines = b >> 8;
+		if (bSize == 0) {
+			return false;
+		}
+		int onlyASize = 0;
+		int onlyBSize = 0;
+		for (int n = 0 ; n < aSize ; n++) {
+			if (!contains(bCells, bSize, aCells[n])) {
+				onlyA[onlyASize++] = aCells[n];
+			}
+		}
+		if (onlyASize == aSize) {
+			return false;
+		}
+		for (int n = 0 ; n < bSize ; n++) {
+			if (!contains(aCells, aSize, bCells[n])) {
+				onlyB[onlyBSize++] = bCells[n];
+			}
+		}
+		if (onlyASize + onlyBSize > 0 && bMines - aMines == onlyBSize) {
+			learnAll(onlyB, onlyBSize, MINE);
+			learnAll(onlyA, onlyASize, SAFE);
+			return true;
+		} else if (onlyASize + onlyBSize > 0 && aMines - bMines == onlyASize) {
+			learnAll(onlyA, onlyASize, MINE);
+			learnAll(onlyB, onlyBSize, SAFE);
+			return true;
+		}
+		return false;
+	}
+
+	private void learnAll(int[] cells, int size, byte bit) {
+		for (int n = 0 ; n < size ; n++) {
+			learn(cells[n], bit);
+		}
+	}
+
+	private static boolean contains(int[] cells, int size, int cell) {
+		for (int n = 0 ; n < size ; n++) {
+			if (cells[n] == cell) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,142 @@
+package com.heliomug.games.minesweeper;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * This is a set of pre-drawn images for every way a cell can look at one cell size,
+ * so painting the board is just copying images.
+ */
+class TileSet {
+	// color constants
+	private static final int DARK = 64;
+	private static final int MEDIUM = 128;
+	private static final int BRIGHT = 255;
+
+	// This is a set of colors to use for the game.
+	// They are the colors for the cells of varying mine counts.
+	private static final Color[] COLORS = {
+		new Color(192, 192, 192),
+		new Color(MEDIUM, MEDIUM, BRIGHT),
+		new Color(MEDIUM, BRIGHT, MEDIUM),
+		new Color(BRIGHT, MEDIUM, MEDIUM),
+		new Color(0, 0, BRIGHT),
+		new Color(0, MEDIUM, 0),
+		new Color(MEDIUM, 0, 0),
+		new Color(MEDIUM, MEDIUM, MEDIUM),
+		new Color(0, 0, 0)
+	};
+
+	// colors for everything other than open cells
+	private static final Color HIDDEN_COLOR = new Color(DARK, DARK, DARK);
+	private static final Color MARK_COLOR = new Color(BRIGHT, BRIGHT, BRIGHT);
+	private static final Color MINE_COLOR = new Color(BRIGHT, 0, 0);
+	private static final Color LINE_COLOR = new Color(0, 0, 0);
+
+	// see-through shades laid over hidden cells for the chance of a mine, from none to certain
+	private static final Color[] ODDS_COLORS = new Color[11];
+	static {
+		for (int i = 0 ; i < ODDS_COLORS.length ; i++) {
+			double chance = i / (ODDS_COLORS.length - 1.0);
+			ODDS_COLORS[i] = new Color((int)(BRIGHT * chance), (int)(BRIGHT * (1 - chance)), 0, MEDIUM);
+		}
+	}
+
+	// tiles 0 through 8 are open cells with that many mines around them
+	public static final int HIDDEN = 9;
+	public static final int FLAG = 10;
+	public static final int EXPLODED = 11;
+	public static final int MINE = 12;
+	public static final int WRONG_FLAG = 13;
+
+	private final int size;
+	private final boolean isNumbersOn;
+	private final BufferedImage[] tiles;
+
+	public TileSet(int size, boolean isNumbersOn) {
+		this.size = size;
+		this.isNumbersOn = isNumbersOn;
+		this.tiles = new BufferedImage[WRONG_FLAG + 1];
+		Font font = new Font("SansSerif", Font.BOLD, (int)(size * .6));
+		for (int i = 0 ; i < tiles.length ; i++) {
+			// one extra pixel so the grid line is on all four sides
+			tiles[i] = new BufferedImage(size + 1, size + 1, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = tiles[i].createGraphics();
+			g.setFont(font);
+			drawTile(g, i);
+			g.dispose();
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean isNumbersOn() {
+		return isNumbersOn;
+	}
+
+	/**
+	 * Draws the given tile with its top left corner at (x, y) in pixels.
+	 */
+	public void draw(Graphics g, int tile, int x, int y) {
+		g.drawImage(tiles[tile], x, y, null);
+	}
+
+	/**
+	 * Shades the cell with its top left corner at (x, y) by the chance it's a mine, from green to red.
+	 * A chance that's only a rough guess gets a line across it.
+	 */
+	public void drawOdds(Graphics g, double chance, boolean isExact, int x, int y) {
+		g.setColor(ODDS_COLORS[(int)Math.round(chance * (ODDS_COLORS.length - 1))]);
+		g.fillRect(x + 1, y + 1, size - 1, size - 1);
+		if (!isExact) {
+			g.setColor(LINE_COLOR);
+			g.drawLine(x + 1, y + size - 1, x + size - 1, y + 1);
+		}
+	}
+
+	private void drawTile(Graphics2D g, int tile) {
+		if (tile == EXPLODED) {
+			g.setColor(LINE_COLOR);
+			g.fillRect(0, 0, size, size);
+			g.setColor(MINE_COLOR);
+			g.fillOval(size / 4, size / 4, size / 2, size / 2);
+		} else if (tile == MINE) {
+			g.setColor(HIDDEN_COLOR);
+			g.fillRect(0, 0, size, size);
+			g.setColor(MINE_COLOR);
+			g.fillOval(size / 4, size / 4, size / 2, size / 2);
+		} else if (tile == WRONG_FLAG) {
+			g.setColor(MINE_COLOR);
+			g.fillRect(0, 0, size, size);
+			g.setColor(MARK_COLOR);
+			g.fillRect(size / 4, size / 4, size / 2, size / 2);
+		} else if (tile == FLAG) {
+			g.setColor(HIDDEN_COLOR);
+			g.fillRect(0, 0, size, size);
+			g.setColor(MARK_COLOR);
+			g.fillRect(size / 4, size / 4, size / 2, size / 2);
+		} else if (tile == HIDDEN) {
+			g.setColor(HIDDEN_COLOR);
+			g.fillRect(0, 0, size, size);
+		} else {
+			g.setColor(COLORS[tile]);
+			g.fillRect(0, 0, size, size);
+			if (isNumbersOn && tile > 0) {
+				FontMetrics fm = g.getFontMetrics();
+				String str = String.valueOf(tile);
+				int xOff = fm.stringWidth(str) / 2;
+				int yOff = fm.getHeight()/ 2;
+				g.setColor(tile > 3 ? Color.WHITE : Color.BLACK);
+				g.drawString(str, size/2 - xOff, size/2 + yOff);
+			}
+		}
+		g.setColor(LINE_COLOR);
+		g.drawRect(0, 0, size, size);
+	}
+}
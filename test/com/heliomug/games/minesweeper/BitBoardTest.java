@@ -0,0 +1,66 @@
+package com.heliomug.games.minesweeper;
+
+import static com.heliomug.games.minesweeper.Check.check;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Checks {@link BitBoard}: the word-at-a-time mine counts match {@link BitBoard#countScalar}
+ * on random fields of every width up to a few words, and a bitmap of the whole field
+ * repacks into the same rows as packing the cells.
+ */
+public class BitBoardTest {
+	public static void main(String[] args) {
+		countMatchesScalar();
+		fromFlatMatchesPack();
+		System.out.println("BitBoardTest passed");
+	}
+
+	/**
+	 * Random fields of every width up to a few words, including the edges of words, count the same both ways.
+	 */
+	static void countMatchesScalar() {
+		SplittableRandom random = new SplittableRandom(1);
+		for (int width = 1 ; width <= 200 ; width++) {
+			int height = 1 + random.nextInt(40);
+			byte[] cells = randomCells(random, width, height);
+			long[] rows = BitBoard.pack(cells, (byte)1, width, height);
+			byte[] counts = new byte[width * height];
+			byte[] expected = new byte[width * height];
+			BitBoard.count(rows, width, height, counts);
+			BitBoard.countScalar(rows, width, height, expected);
+			check(Arrays.equals(counts, expected), "counts differ on " + width + " X " + height);
+		}
+	}
+
+	/**
+	 * A bitmap of the whole field repacks into the same rows as packing the cells.
+	 */
+	static void fromFlatMatchesPack() {
+		SplittableRandom random = new SplittableRandom(2);
+		for (int width = 1 ; width <= 200 ; width++) {
+			int height = 1 + random.nextInt(40);
+			byte[] cells = randomCells(random, width, height);
+			long[] flat = new long[(width * height + 63) >>> 6];
+			for (int i = 0 ; i < cells.length ; i++) {
+				if (cells[i] != 0) {
+					flat[i >>> 6] |= 1L << i;
+				}
+			}
+			check(Arrays.equals(BitBoard.fromFlat(flat, width, height), BitBoard.pack(cells, (byte)1, width, height)),
+					"rows differ on " + width + " X " + height);
+		}
+	}
+
+	// about a quarter mines, a bit over what Hard is
+	private static byte[] randomCells(SplittableRandom random, int width, int height) {
+		byte[] cells = new byte[width * height];
+		for (int i = 0 ; i < cells.length ; i++) {
+			if (random.nextInt(4) == 0) {
+				cells[i] = 1;
+			}
+		}
+		return cells;
+	}
+}
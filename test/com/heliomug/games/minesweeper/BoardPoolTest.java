@@ -0,0 +1,94 @@
+package com.heliomug.games.minesweeper;
+
+import static com.heliomug.games.minesweeper.Check.check;
+
+/**
+ * Checks that {@link BoardPool} keeps to its limits: no size gets more boards than the cap,
+ * sizes used longer ago give up boards to make room for the one taken last, and a field handed back
+ * is laid out again and handed over next.
+ * The pool fills on its own thread, so each check waits a while for it to settle first.
+ */
+public class BoardPoolTest {
+	// how long to wait for the producer before giving up
+	private static final long SETTLE_MILLIS = 5000;
+
+	public static void main(String[] args) throws InterruptedException {
+		capsEachSize();
+		evictsOlderSizes();
+		reusesRecycled();
+		System.out.println("BoardPoolTest passed");
+	}
+
+	/**
+	 * A size only gets as many boards as the cap, however much budget is left.
+	 */
+	static void capsEachSize() throws InterruptedException {
+		BoardPool pool = new BoardPool(Long.MAX_VALUE, 3);
+		check(pool.take(9, 9, 10, MineField.SAFE_CELL) == null, "board ready before any were asked for");
+		waitForReady(pool, 9, 9, 10, 3);
+		Thread.sleep(100);
+		check(pool.getReady(9, 9, 10, MineField.SAFE_CELL) == 3, "more boards than the cap");
+		check(pool.getReady(9, 9, 10, MineField.SAFE_NONE) == 0, "boards for a size never asked for");
+		pool.close();
+	}
+
+	/**
+	 * When the size taken last needs room, boards of the size taken before it are let go.
+	 */
+	static void evictsOlderSizes() throws InterruptedException {
+		// the budget is just two big boards, so there's no room for small ones as well
+		BoardPool sizer = new BoardPool(Long.MAX_VALUE, 1);
+		sizer.take(100, 100, 2000, MineField.SAFE_CELL);
+		waitForReady(sizer, 100, 100, 2000, 1);
+		long big = sizer.getBytes();
+		sizer.close();
+
+		BoardPool pool = new BoardPool(2 * big, 2);
+		pool.take(9, 9, 10, MineField.SAFE_CELL);
+		waitForReady(pool, 9, 9, 10, 2);
+		pool.take(100, 100, 2000, MineField.SAFE_CELL);
+		waitForReady(pool, 100, 100, 2000, 2);
+		check(pool.getReady(9, 9, 10, MineField.SAFE_CELL) == 0, "older size kept over the budget");
+		check(pool.getBytes() <= 2 * big, "over the budget: " + pool.getBytes());
+
+		// going back to the small size only lets go of as many big boards as it takes to fit it
+		pool.take(9, 9, 10, MineField.SAFE_CELL);
+		waitForReady(pool, 9, 9, 10, 2);
+		check(pool.getReady(100, 100, 2000, MineField.SAFE_CELL) == 1, "let go of more than needed");
+		check(pool.getBytes() <= 2 * big, "over the budget: " + pool.getBytes());
+		pool.close();
+	}
+
+	/**
+	 * A field handed back is laid out again and handed over next, instead of a new one.
+	 */
+	static void reusesRecycled() throws InterruptedException {
+		BoardPool pool = new BoardPool(Long.MAX_VALUE, 1);
+		pool.take(9, 9, 10, MineField.SAFE_CELL);
+		waitForReady(pool, 9, 9, 10, 1);
+
+		MineField played = new MineField(9, 9, 10);
+		played.setSafeStart(MineField.SAFE_CELL);
+		played.reset(1);
+		played.open(4, 4);
+		pool.recycle(played);
+
+		MineField first = pool.take(9, 9, 10, MineField.SAFE_CELL);
+		check(first != null && first != played, "the board that was ready wasn't handed over first");
+		waitForReady(pool, 9, 9, 10, 1);
+		MineField second = pool.take(9, 9, 10, MineField.SAFE_CELL);
+		check(second == played, "recycled field not reused");
+		check(!second.isStarted() && !second.isOpen(4, 4), "recycled field not laid out again");
+		pool.close();
+	}
+
+	// waits for the size to have just this many boards ready
+	private static void waitForReady(BoardPool pool, int width, int height, int mines, int count)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + SETTLE_MILLIS;
+		while (pool.getReady(width, height, mines, MineField.SAFE_CELL) != count) {
+			check(System.currentTimeMillis() < end, "never got " + count + " boards of " + width + " X " + height);
+			Thread.sleep(10);
+		}
+	}
+}
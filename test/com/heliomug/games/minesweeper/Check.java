@@ -0,0 +1,17 @@
+package com.heliomug.games.minesweeper;
+
+/**
+ * The one assertion the tests share.  The tests need nothing but the JDK: each is a class with a main method,
+ * run like <code>java com.heliomug.games.minesweeper.MineFieldTest</code>,
+ * that prints that it passed or throws at the first check that fails.
+ */
+final class Check {
+	private Check() {
+	}
+
+	static void check(boolean isTrue, String message) {
+		if (!isTrue) {
+			throw new AssertionError(message);
+		}
+	}
+}
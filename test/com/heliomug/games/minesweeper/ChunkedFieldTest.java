@@ -0,0 +1,102 @@
+package com.heliomug.games.minesweeper;
+
+import static com.heliomug.games.minesweeper.Check.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Checks {@link ChunkedField}: a click on a sparse field stops after so many cells and picks up again
+ * without keeping more chunks than it's allowed, a field with no mines is turned down,
+ * and chunks pushed out to the swap directory come back as they were, written only when they've changed.
+ */
+public class ChunkedFieldTest {
+	public static void main(String[] args) throws IOException {
+		openSparse();
+		rejectEmpty();
+		swapRoundTrip();
+		System.out.println("ChunkedFieldTest passed");
+	}
+
+	/**
+	 * A field this sparse has an empty region with no end,
+	 * so a click comes back after a bounded number of cells and can be picked up again,
+	 * without keeping more chunks than it's allowed.
+	 */
+	static void openSparse() throws IOException {
+		File swapDir = Files.createTempDirectory("chunks").toFile();
+		try {
+			int maxChunks = 16;
+			ChunkedField field = new ChunkedField(1, 0.05, swapDir, maxChunks);
+			check(!field.open(0, 0), "the reveal should stop short");
+			long opened = field.getOpenCount();
+			check(opened >= ChunkedField.MAX_REVEAL && opened <= ChunkedField.MAX_REVEAL + 8, "opened " + opened + " cells from one click");
+			check(field.isRevealing(), "there should be more to reveal");
+			check(!field.resume(), "the reveal should stop short again");
+			check(field.getOpenCount() > opened, "resuming didn't open anything");
+			check(field.getOpenCount() <= 2 * (ChunkedField.MAX_REVEAL + 8), "opened " + field.getOpenCount() + " cells from two calls");
+			check(field.getChunkCount() <= maxChunks, field.getChunkCount() + " chunks in memory");
+			check(!field.isLoser(), "the reveal opened a mine");
+		} finally {
+			for (File file : swapDir.listFiles()) {
+				file.delete();
+			}
+			swapDir.delete();
+		}
+	}
+
+	static void rejectEmpty() {
+		try {
+			new ChunkedField(1, 0, new File("."), 16);
+		} catch (IllegalArgumentException e) {
+			return;
+		}
+		throw new AssertionError("a field with no mines should be turned down");
+	}
+
+	/**
+	 * A chunk pushed out of memory comes back with what was opened and flagged in it,
+	 * and isn't written again when it's pushed out with nothing changed.
+	 */
+	static void swapRoundTrip() throws IOException {
+		File swapDir = Files.createTempDirectory("chunks").toFile();
+		try {
+			// one chunk at a time, so looking anywhere else pushes the last one out
+			ChunkedField field = new ChunkedField(2, 0.2, swapDir, 1);
+			field.open(0, 0);
+			int flagX = 40;
+			int flagY = 40;
+			field.toggleFlag(flagX, flagY);
+			boolean[] opened = new boolean[64 * 64];
+			for (int i = 0 ; i < opened.length ; i++) {
+				opened[i] = field.isOpen(i % 64, i / 64);
+			}
+			check(opened[0], "the click didn't open anything");
+
+			field.isMine(1000, 1000);
+			// the click opens into the chunks around (0, 0) too, but this is the one with the flag
+			File file = new File(swapDir, String.format("%016x_0_0.chunk", 2));
+			check(file.exists(), "the chunk wasn't written");
+			for (int i = 0 ; i < opened.length ; i++) {
+				check(field.isOpen(i % 64, i / 64) == opened[i], "cell " + i + " came back different");
+			}
+			check(field.isFlag(flagX, flagY), "the flag didn't come back");
+
+			// read back and pushed out again without changes, so the file is left alone
+			check(file.setLastModified(1000), "couldn't date the file");
+			field.isMine(1000, 1000);
+			check(file.lastModified() == 1000, "an unchanged chunk was written again");
+
+			field.toggleFlag(flagX, flagY);
+			field.isMine(1000, 1000);
+			check(file.lastModified() != 1000, "a changed chunk wasn't written");
+			check(!field.isFlag(flagX, flagY), "taking the flag away didn't stick");
+		} finally {
+			for (File file : swapDir.listFiles()) {
+				file.delete();
+			}
+			swapDir.delete();
+		}
+	}
+}
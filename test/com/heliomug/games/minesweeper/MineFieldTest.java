@@ -0,0 +1,147 @@
+package com.heliomug.games.minesweeper;
+
+import static com.heliomug.games.minesweeper.Check.check;
+
+import java.util.SplittableRandom;
+
+/**
+ * Checks the game logic in {@link MineField}: a flood fill over a huge field, chording and opening
+ * a flag before the first click without using up the safe start, and the safe start moving mines
+ * off the first click's 3x3 block the same way every time.
+ */
+public class MineFieldTest {
+	public static void main(String[] args) {
+		openLargeRegion();
+		chordFirst();
+		flagFirst();
+		safeArea(30, 16, 99);
+		safeArea(9, 9, 72);
+		System.out.println("MineFieldTest passed");
+	}
+
+	/**
+	 * A 4000 X 4000 field with one mine opens everything but the mine from one click,
+	 * without running out of stack or memory.
+	 */
+	static void openLargeRegion() {
+		int size = 4000;
+		MineField field = new MineField(size, size, 1);
+		field.setSafeStart(MineField.SAFE_AREA);
+		field.reset(1);
+		OpenCounter counter = new OpenCounter();
+		field.addListener(counter);
+		field.open(size / 2, size / 2);
+		check(counter.opened == size * size - 1, "opened " + counter.opened + " cells, not " + (size * size - 1));
+		check(field.isWinner(), "the field should be won");
+		check(!field.isLoser(), "the field shouldn't be lost");
+	}
+
+	/**
+	 * A chord before anything's been opened does nothing, so it can't lose, 
+	 * and the open after it is still protected.
+	 */
+	static void chordFirst() {
+		MineField field = new MineField(30, 16, 99);
+		OpenCounter counter = new OpenCounter();
+		field.addListener(counter);
+		SplittableRandom random = new SplittableRandom(7);
+		for (int trial = 0 ; trial < 10000 ; trial++) {
+			field.reset(random.nextLong());
+			int x = random.nextInt(field.getWidth());
+			int y = random.nextInt(field.getHeight());
+			check(!field.chord(x, y), "a first chord shouldn't do anything");
+			check(counter.opened == 0 && !field.isLoser(), "a first chord opened something");
+			field.open(x, y);
+			check(!field.isLoser(), "the first open after a chord lost");
+		}
+	}
+
+	/**
+	 * Opening a flagged cell first doesn't use up the safe start, 
+	 * so the real first open after it is still protected, even on a cell the layout had a mine on.
+	 */
+	static void flagFirst() {
+		MineField field = new MineField(9, 9, 10);
+		OpenCounter counter = new OpenCounter();
+		field.addListener(counter);
+		SplittableRandom random = new SplittableRandom(13);
+		for (int trial = 0 ; trial < 1000 ; trial++) {
+			field.reset(random.nextLong());
+			int x = random.nextInt(field.getWidth());
+			int y = random.nextInt(field.getHeight());
+			field.toggleFlag(x, y);
+			field.open(x, y);
+			check(!field.isStarted() && counter.opened == 0, "opening a flag counted as a move");
+			int mine = 0;
+			while (!field.isMine(mine % 9, mine / 9) || (mine % 9 == x && mine / 9 == y)) {
+				mine++;
+			}
+			field.open(mine % 9, mine / 9);
+			check(!field.isLoser(), "the first open after opening a flag lost");
+		}
+	}
+
+	/**
+	 * Mines laid out on reset and moved off the first click's 3x3 block are all still there,
+	 * none are in the block, and the same seed and click give the same layout.
+	 * The crowded field only just leaves room, so the mines can't be moved by guessing where to put them.
+	 */
+	static void safeArea(int width, int height, int mines) {
+		MineField field = new MineField(width, height, mines);
+		field.setSafeStart(MineField.SAFE_AREA);
+		MineField again = new MineField(width, height, mines);
+		again.setSafeStart(MineField.SAFE_AREA);
+		SplittableRandom random = new SplittableRandom(11);
+		for (int trial = 0 ; trial < 1000 ; trial++) {
+			long seed = random.nextLong();
+			int x = 1 + random.nextInt(width - 2);
+			int y = 1 + random.nextInt(height - 2);
+			field.reset(seed);
+			field.open(x, y);
+			again.reset(seed);
+			again.open(x, y);
+			int found = 0;
+			for (int j = 0 ; j < height ; j++) {
+				for (int i = 0 ; i < width ; i++) {
+					if (field.isMine(i, j)) {
+						found++;
+						check(Math.abs(i - x) > 1 || Math.abs(j - y) > 1, "a mine was left next to the first click");
+					}
+					check(field.isMine(i, j) == again.isMine(i, j), "the same seed and click gave different layouts");
+					check(field.minesAround(i, j) == countAround(field, i, j), "the count at (" + i + ", " + j + ") is off");
+				}
+			}
+			check(found == mines, found + " mines, not " + mines);
+		}
+	}
+
+	private static int countAround(MineField field, int x, int y) {
+		int count = 0;
+		for (int i = x - 1 ; i <= x + 1 ; i++) {
+			for (int j = y - 1 ; j <= y + 1 ; j++) {
+				if (field.inBounds(i, j) && field.isMine(i, j)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	static class OpenCounter implements FieldListener {
+		int opened;
+
+		@Override
+		public void fieldReset(MineField field) {
+			opened = 0;
+		}
+
+		@Override
+		public void cellOpened(MineField field, int x, int y) {
+			opened++;
+		}
+
+		@Override
+		public void cellFlagged(MineField field, int x, int y, boolean isFlag) {
+		}
+	}
+}
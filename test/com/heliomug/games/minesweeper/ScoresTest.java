@@ -0,0 +1,86 @@
+package com.heliomug.games.minesweeper;
+
+import static com.heliomug.games.minesweeper.Check.check;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Checks that {@link Scores} gets what it can out of a damaged scores file: a record torn off the end
+ * is cut away, a record with a bad checksum is skipped without losing the ones after it,
+ * and a file that isn't a scores file is moved aside rather than written over.
+ */
+public class ScoresTest {
+	public static void main(String[] args) throws IOException, InterruptedException {
+		File dir = Files.createTempDirectory("scores").toFile();
+		Persistence io = new Persistence();
+		try {
+			tornRecord(new File(dir, "torn.log"), io);
+			damagedRecord(new File(dir, "damaged.log"), io);
+			badHeader(new File(dir, "bad.log"), io);
+		} finally {
+			io.close();
+			for (File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		System.out.println("ScoresTest passed");
+	}
+
+	/**
+	 * Half a record at the end of a good file gets cut off, and the games before it stay.
+	 */
+	static void tornRecord(File file, Persistence io) throws IOException, InterruptedException {
+		Scores scores = new Scores(file, io);
+		for (int n = 0 ; n < 10 ; n++) {
+			scores.addGame(9, 9, 10, 20 + n, true, null);
+		}
+		io.flush();
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length + 13));
+		Scores reread = new Scores(file, io);
+		io.flush();
+		check(reread.getGames(9, 9, 10).size() == 10, "lost games reading a torn record");
+		check(Files.size(file.toPath()) == bytes.length, "the torn record wasn't cut off");
+	}
+
+	/**
+	 * A bit flipped in the middle of the file loses that one game, and the file isn't cut short.
+	 */
+	static void damagedRecord(File file, Persistence io) throws IOException, InterruptedException {
+		Scores scores = new Scores(file, io);
+		for (int n = 0 ; n < 10 ; n++) {
+			scores.addGame(9, 9, 10, 20 + n, true, null);
+		}
+		io.flush();
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		int record = (bytes.length - 8) / 10;
+		bytes[8 + 2 * record + 5] ^= 1;
+		Files.write(file.toPath(), bytes);
+		Scores reread = new Scores(file, io);
+		reread.addGame(9, 9, 10, 30, true, null);
+		io.flush();
+		check(reread.getGames(9, 9, 10).size() == 10, reread.getGames(9, 9, 10).size() + " games read past a damaged record, not 10");
+		check(Files.size(file.toPath()) == bytes.length + record, "the file lost more than the damaged record");
+	}
+
+	/**
+	 * A file that isn't a scores file is moved aside whole, not written over.
+	 */
+	static void badHeader(File file, Persistence io) throws IOException, InterruptedException {
+		byte[] junk = new byte[1000];
+		Arrays.fill(junk, (byte)7);
+		Files.write(file.toPath(), junk);
+		Scores scores = new Scores(file, io);
+		scores.addGame(9, 9, 10, 20, true, null);
+		io.flush();
+		File bad = new File(file.getPath() + ".bad");
+		check(bad.exists() && Arrays.equals(Files.readAllBytes(bad.toPath()), junk), "the bad file wasn't kept");
+		Scores reread = new Scores(file, io);
+		io.flush();
+		check(reread.getGames(9, 9, 10).size() == 1, "the game after the bad file wasn't kept");
+	}
+}